@@ -2,7 +2,9 @@ package aes.davidr;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
+import aes.davidr.engine.BlockEngines;
 import aes.davidr.engine.KeySchedule;
 import aes.davidr.fileCrypto.FileECB;
 import aes.davidr.modes.ECB;
@@ -14,6 +16,12 @@ public final class AesCipher {
     public static final boolean ENCRYPT_MODE = true;
     public static final boolean DECRYPT_MODE = false;
 
+    private static final KeyCache KEYS = KeyCache.fromProperty();
+
+    /** Name of the block engine all entry points run on (see BlockEngines). */
+    public static String engineName() {
+        return BlockEngines.selectedName();
+    }
 
     public static byte[] cryptBytes(boolean encrypt, byte[] in, String key) {
         return cryptBytes(encrypt, in, key, AES_128);
@@ -24,11 +32,13 @@ public final class AesCipher {
     }
 
     public static byte[] cryptBytes(boolean encrypt, byte[] in, String key, int mode) {
-        return ECB.ecbCryptBytes(encrypt, in, new KeySchedule(key, mode));
+        return cryptBytes(encrypt, in, textKey(key), mode);
     }
 
     public static byte[] cryptBytes(boolean encrypt, byte[] in, byte[] key, int mode) {
-        return ECB.ecbCryptBytes(encrypt, in, new KeySchedule(key, mode));
+        try (KeyCache.Lease lease = KEYS.acquire(key, mode)) {
+            return ECB.ecbCryptBytes(encrypt, in, lease.schedule());
+        }
     }
 
     public static void cryptFile(boolean encrypt, File inFile, File outFile, String key) throws IOException {
@@ -40,11 +50,37 @@ public final class AesCipher {
     }
 
     public static void cryptFile(boolean encrypt, File inFile, File outFile, String key, int mode) throws IOException {
-        FileECB.processFile(encrypt, inFile, outFile, new KeySchedule(key, mode));
+        cryptFile(encrypt, inFile, outFile, textKey(key), mode);
     }
 
     public static void cryptFile(boolean encrypt, File inFile, File outFile, byte[] key, int mode) throws IOException {
-        FileECB.processFile(encrypt, inFile, outFile, new KeySchedule(key, mode));
+        try (KeyCache.Lease lease = KEYS.acquire(key, mode)) {
+            FileECB.processFile(encrypt, inFile, outFile, lease.schedule());
+        }
+    }
+
+    /**
+     * Key schedules for the (key, mode) entry points are cached, at most
+     * aes.davidr.keycache.size of them (default 64, 0 disables), least recently
+     * used evicted first and wiped. These count lookups since startup.
+     */
+    public static long keyCacheHits() {
+        return KEYS.hits();
+    }
+
+    public static long keyCacheMisses() {
+        return KEYS.misses();
+    }
+
+    /** Drops and wipes every cached key schedule. */
+    public static void clearKeyCache() {
+        KEYS.clear();
+    }
+
+    private static byte[] textKey(String key) {
+        if (key == null)
+            throw new IllegalArgumentException("key is null");
+        return key.getBytes(StandardCharsets.UTF_8);
     }
 
     private static KeySchedule keyScheduleForBytes(byte[] key) {
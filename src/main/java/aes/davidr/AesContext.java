@@ -0,0 +1,240 @@
+package aes.davidr;
+
+import java.util.Arrays;
+
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.CBC;
+import aes.davidr.modes.CTR;
+import aes.davidr.modes.ECB;
+import aes.davidr.modes.Padding;
+
+/**
+ * Reusable, stateful cipher: init() once with a key schedule (and IV), then
+ * update() as data arrives and doFinal() at the end of each message. Partial
+ * blocks are carried across update() calls in a buffer owned by the instance,
+ * whole blocks go straight from the caller's input to the caller's output.
+ * Calls below the parallel threshold allocate nothing (bar the one-shot
+ * doFinal(byte[])): CTR builds its keystream in a scratch buffer owned by the
+ * instance, and overlapping in/out data is staged through the same buffer.
+ * Only an output more than a block ahead of its own input is copied first.
+ *
+ * ECB and CBC use PKCS#7 padding; decryption holds back the last block until
+ * doFinal() so the padding can be removed. CTR is a stream mode, no padding.
+ * After doFinal() the instance is back in its initialised state (same key and
+ * IV), like javax.crypto.Cipher: call init() with a fresh IV before the next
+ * CBC or CTR message. Not thread-safe; use one instance per thread.
+ */
+public final class AesContext {
+    public enum Mode { ECB, CBC, CTR }
+
+    private static final int BLOCK = 16;
+    private static final int SCRATCH = 4096;
+
+    private final Mode mode;
+    private boolean encrypt;
+    private KeySchedule ks;
+    private byte[] keyBytes; // key the cached schedule was built from, for init(byte[])
+
+    private final byte[] iv = new byte[BLOCK];
+    private final byte[] chain = new byte[BLOCK]; // CBC: previous ciphertext block
+    private final byte[] nextChain = new byte[BLOCK];
+    private final byte[] buf = new byte[BLOCK]; // partial (or held-back) block
+    private final byte[] scratch = new byte[SCRATCH]; // CTR keystream, in-place staging
+    private int bufLen;
+    private long streamPos; // CTR: keystream bytes used
+
+    public AesContext(Mode mode) {
+        if (mode == null)
+            throw new IllegalArgumentException("null");
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** iv: 16 bytes for CBC and CTR, ignored (may be null) for ECB. */
+    public void init(boolean encrypt, KeySchedule ks, byte[] iv) {
+        if (ks == null)
+            throw new IllegalArgumentException("null");
+        if (mode != Mode.ECB && (iv == null || iv.length != BLOCK))
+            throw new IllegalArgumentException("iv must be 16 bytes");
+        this.encrypt = encrypt;
+        this.ks = ks;
+        this.keyBytes = null;
+        if (iv != null && mode != Mode.ECB)
+            System.arraycopy(iv, 0, this.iv, 0, BLOCK);
+        reset();
+    }
+
+    /** As init(KeySchedule), rebuilding the key schedule only when the key changes. */
+    public void init(boolean encrypt, byte[] key, byte[] iv) {
+        if (key == null)
+            throw new IllegalArgumentException("key is null");
+        byte[] known = keyBytes;
+        boolean same = ks != null && known != null && Arrays.equals(known, key);
+        init(encrypt, same ? ks : new KeySchedule(key), iv);
+        keyBytes = same ? known : key.clone();
+    }
+
+    /** Upper bound on the bytes the next update (last == false) or doFinal (last == true) writes. */
+    public int getOutputSize(int len, boolean last) {
+        checkInit();
+        int total = bufLen + len;
+        if (mode == Mode.CTR)
+            return len;
+        if (encrypt)
+            return last ? (total & ~(BLOCK - 1)) + BLOCK : total & ~(BLOCK - 1);
+        return last ? total : Math.max(0, (total - 1) & ~(BLOCK - 1));
+    }
+
+    /**
+     * Processes len bytes, returns the number of bytes written to out. in and out
+     * may overlap; in place at the same offset is the usual case.
+     */
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkInit();
+        checkRange(in, inOff, len);
+        if (out == null)
+            throw new IllegalArgumentException("null");
+        if (len == 0)
+            return 0;
+        if (mode == Mode.CTR) {
+            CTR.ctrProcessBytes(iv, streamPos, in, inOff, len, out, outOff, ks, scratch);
+            streamPos += len;
+            return len;
+        }
+
+        // encryption keeps 0..15 bytes back, decryption 1..16 (the last block may hold the padding)
+        int keep = encrypt ? (bufLen + len) & (BLOCK - 1) : ((bufLen + len - 1) & (BLOCK - 1)) + 1;
+        if (in == out && outOff < inOff + len && inOff < outOff + bufLen + len) {
+            int ahead = outOff - inOff + bufLen; // how far the output runs ahead of the input it comes from
+            if (ahead != 0 && ahead <= BLOCK) // ahead == 0: the modes handle in place directly
+                return updateStaged(in, inOff, len, outOff, keep);
+            if (ahead > BLOCK) {
+                in = Arrays.copyOfRange(in, inOff, inOff + len); // rare: output far ahead of the input
+                inOff = 0;
+            }
+        }
+
+        int written = 0;
+        if (bufLen > 0) {
+            int take = Math.min(len, BLOCK - bufLen);
+            System.arraycopy(in, inOff, buf, bufLen, take);
+            bufLen += take;
+            inOff += take;
+            len -= take;
+            if (bufLen < BLOCK || len == 0 && !encrypt)
+                return 0;
+            blocks(buf, 0, BLOCK, out, outOff);
+            bufLen = 0;
+            written = BLOCK;
+        }
+        int bulk = len - Math.min(len, keep);
+        blocks(in, inOff, bulk, out, outOff + written);
+        System.arraycopy(in, inOff + bulk, buf, 0, len - bulk);
+        bufLen = len - bulk;
+        return written + bulk;
+    }
+
+    /**
+     * update() for overlapping ranges in one array whose output is at most a
+     * block ahead of its input. The stream (buf, then b[off..off+len)) goes
+     * through scratch in chunks; before a chunk is written back, the unread
+     * input bytes it covers (at most 16) are moved to buf and carried into the
+     * next chunk.
+     */
+    private int updateStaged(byte[] b, int off, int len, int outOff, int keep) {
+        int emit = bufLen + len - keep;
+        int end = off + len;
+        int carry = bufLen;
+        System.arraycopy(buf, 0, scratch, 0, carry);
+        int r = off; // next unread input byte
+        int o = outOff; // next output byte
+        while (o - outOff < emit) {
+            int n = Math.min(SCRATCH, emit - (o - outOff));
+            System.arraycopy(b, r, scratch, carry, n - carry);
+            r += n - carry;
+            carry = Math.max(0, Math.min(end, o + n) - r);
+            System.arraycopy(b, r, buf, 0, carry);
+            r += carry;
+            blocks(scratch, 0, n, b, o);
+            o += n;
+            System.arraycopy(buf, 0, scratch, 0, carry);
+        }
+        System.arraycopy(scratch, 0, buf, 0, carry);
+        System.arraycopy(b, r, buf, carry, end - r);
+        bufLen = carry + end - r;
+        return emit;
+    }
+
+    /**
+     * Last input of the message, padding added or removed; returns the number of
+     * bytes written. Decryption throws IllegalArgumentException on bad padding
+     * or a length that is not a multiple of 16.
+     */
+    public int doFinal(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        int n = update(in, inOff, len, out, outOff);
+        if (mode == Mode.CTR) {
+            reset();
+            return n;
+        }
+        try {
+            if (encrypt) {
+                Padding.padPKCS7(buf, 0, bufLen);
+                blocks(buf, 0, BLOCK, out, outOff + n);
+                return n + BLOCK;
+            }
+            if (bufLen != BLOCK)
+                throw new IllegalArgumentException("ciphertext must be multiple of 16");
+            blocks(buf, 0, BLOCK, scratch, 0);
+            int tail = Padding.unpadPKCS7(scratch, 0, BLOCK);
+            System.arraycopy(scratch, 0, out, outOff + n, tail);
+            return n + tail;
+        } finally {
+            reset();
+        }
+    }
+
+    /** One-shot convenience: the whole message into a new array. */
+    public byte[] doFinal(byte[] in) {
+        checkRange(in, 0, in == null ? 0 : in.length);
+        byte[] out = new byte[getOutputSize(in.length, true)];
+        int n = doFinal(in, 0, in.length, out, 0);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private void blocks(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (len == 0)
+            return;
+        if (mode == Mode.ECB) {
+            ECB.ecbProcessBlocks(encrypt, in, inOff, len, out, outOff, ks);
+        } else if (encrypt) {
+            CBC.cbcEncryptBlocks(chain, in, inOff, len, out, outOff, ks);
+            System.arraycopy(out, outOff + len - BLOCK, chain, 0, BLOCK);
+        } else {
+            System.arraycopy(in, inOff + len - BLOCK, nextChain, 0, BLOCK);
+            CBC.cbcDecryptBlocks(chain, in, inOff, len, out, outOff, ks);
+            System.arraycopy(nextChain, 0, chain, 0, BLOCK);
+        }
+    }
+
+    private void reset() {
+        System.arraycopy(iv, 0, chain, 0, BLOCK);
+        Arrays.fill(buf, (byte) 0);
+        bufLen = 0;
+        streamPos = 0;
+    }
+
+    private void checkInit() {
+        if (ks == null)
+            throw new IllegalStateException("not initialised");
+    }
+
+    private static void checkRange(byte[] b, int off, int len) {
+        if (b == null)
+            throw new IllegalArgumentException("null");
+        if ((off | len) < 0 || off + len > b.length)
+            throw new IllegalArgumentException("bad range");
+    }
+}
@@ -0,0 +1,183 @@
+package aes.davidr;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * Bounded LRU cache of derived key schedules for the (key, mode) entry points
+ * of {@link AesCipher}, so a service that reuses a few keys pays for SHA-256
+ * and key expansion once per key instead of once per call.
+ *
+ * Entries are found by (SHA-256 of the key material, key size); the digest is
+ * also the derivation KeySchedule(byte[], int) uses, so a miss costs nothing
+ * extra. Callers hold a {@link Lease} while they use a schedule: an entry
+ * evicted while leased is wiped ({@link KeySchedule#destroy()}) when the last
+ * lease is released, otherwise at once.
+ */
+final class KeyCache {
+    /** System property with the maximum number of cached schedules (default 64, 0 disables). */
+    static final String SIZE_PROPERTY = "aes.davidr.keycache.size";
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final int capacity;
+    private final Map<ByteBuffer, Entry> map;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    KeyCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0");
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    static KeyCache fromProperty() {
+        return new KeyCache(Integer.getInteger(SIZE_PROPERTY, 64));
+    }
+
+    /** A leased schedule; release it (try-with-resources) when done. */
+    static final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        KeySchedule schedule() {
+            return entry.ks;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final byte[] id; // backing array of the map key, wiped with the schedule
+        final KeySchedule ks;
+        private int leases;
+        private boolean evicted;
+
+        Entry(byte[] id, KeySchedule ks) {
+            this.id = id;
+            this.ks = ks;
+        }
+
+        synchronized void acquire() {
+            leases++;
+        }
+
+        synchronized void release() {
+            if (--leases == 0 && evicted)
+                wipe();
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            if (leases == 0)
+                wipe();
+        }
+
+        private void wipe() {
+            ks.destroy();
+            Arrays.fill(id, (byte) 0);
+        }
+    }
+
+    /** Schedule for KeySchedule(key, mode), from the cache when possible. */
+    Lease acquire(byte[] key, int mode) {
+        if (key == null)
+            throw new IllegalArgumentException("key is null");
+        if (mode != KeySchedule.AES_128 && mode != KeySchedule.AES_192 && mode != KeySchedule.AES_256)
+            throw new IllegalArgumentException("not a mode");
+
+        byte[] id = Arrays.copyOf(SHA256.get().digest(key), 33);
+        id[32] = (byte) mode;
+        ByteBuffer lookup = ByteBuffer.wrap(id);
+        if (capacity > 0) {
+            synchronized (map) {
+                Entry e = map.get(lookup);
+                if (e != null) {
+                    e.acquire(); // under the map lock, so it cannot be evicted before this
+                    hits.incrementAndGet();
+                    Arrays.fill(id, (byte) 0);
+                    return new Lease(e);
+                }
+            }
+        }
+        misses.incrementAndGet();
+
+        // same derivation as KeySchedule(byte[], int): SHA-256 cut to the key size
+        byte[] derived = Arrays.copyOf(id, mode);
+        Entry fresh = new Entry(id, new KeySchedule(derived));
+        Arrays.fill(derived, (byte) 0);
+        fresh.acquire();
+        if (capacity == 0) {
+            fresh.evict(); // uncached: wiped when the caller releases it
+            return new Lease(fresh);
+        }
+
+        synchronized (map) {
+            Entry raced = map.get(lookup);
+            if (raced != null) {
+                raced.acquire();
+                fresh.release();
+                fresh.evict();
+                return new Lease(raced);
+            }
+            map.put(lookup, fresh);
+            Iterator<Entry> it = map.values().iterator();
+            while (map.size() > capacity) {
+                Entry old = it.next();
+                it.remove();
+                old.evict();
+            }
+        }
+        return new Lease(fresh);
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    /** Evicts (and wipes, once unleased) every entry. */
+    void clear() {
+        Entry[] all;
+        synchronized (map) {
+            all = map.values().toArray(new Entry[0]);
+            map.clear();
+        }
+        for (Entry e : all)
+            e.evict();
+    }
+}
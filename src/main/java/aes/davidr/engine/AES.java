@@ -188,4 +188,11 @@ public class AES {
         return blockRun(mode, s, ks, 0);
     }
 
+    /** One block from in[inOff] to out[outOff]; out is returned. */
+    public static byte[] blockRun(boolean mode, byte[] in, int inOff, byte[] out, int outOff, KeySchedule ks) {
+        if (in != out || inOff != outOff)
+            System.arraycopy(in, inOff, out, outOff, BLOCK_LENGTH);
+        return blockRun(mode, out, ks, outOff);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,422 @@
+package aes.davidr.engine;
+
+/**
+ * Bitsliced, table-free AES over 8 blocks at a time.
+ *
+ * The 8 blocks are transposed into 16 longs: q[2*p + h] holds bit p of every
+ * state byte in rows 2h and 2h+1 (low and high 32 bits). Inside a row the
+ * byte of column c sits at bits c*8..c*8+7, one bit per block. With that
+ * layout ShiftRows is a 32-bit rotate per row, MixColumns is row-wise XOR and
+ * xtime across planes, and the S-box is the Boyar-Peralta circuit (32 AND, 81
+ * XOR/XNOR gates). No memory access depends on key or data.
+ */
+public final class BitslicedAES {
+    public static final int BLOCKS = 8;
+    private static final int BLOCK_LENGTH = 16;
+    private static final int GROUP = BLOCKS * BLOCK_LENGTH;
+
+    private static final ThreadLocal<Work> WORK = ThreadLocal.withInitial(Work::new);
+
+    private BitslicedAES() {
+    }
+
+    /**
+     * In-place bulk processing of len bytes from off, len a multiple of 16. A
+     * trailing partial group (< 8 blocks) runs through the same circuit via a
+     * scratch group.
+     */
+    public static void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+        if ((len & (BLOCK_LENGTH - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+        if (len == 0)
+            return;
+
+        long[][] rk = ks.bitslicedRoundKeys();
+        Work w = WORK.get();
+
+        int end = off + len;
+        int p = off;
+        for (; p + GROUP <= end; p += GROUP) {
+            processGroup(mode, s, p, rk, w);
+        }
+        if (p < end) {
+            byte[] tail = w.tail;
+            System.arraycopy(s, p, tail, 0, end - p);
+            processGroup(mode, tail, 0, rk, w);
+            System.arraycopy(tail, 0, s, p, end - p);
+        }
+    }
+
+    private static void processGroup(boolean mode, byte[] s, int off, long[][] rk, Work w) {
+        long[] q = w.q;
+        pack(s, off, q);
+        int nr = rk.length - 1;
+        if (mode) {
+            addRoundKey(q, rk[0]);
+            for (int r = 1; r < nr; r++) {
+                subBytes(q, w, false);
+                shiftRows(q);
+                mixColumns(q, w);
+                addRoundKey(q, rk[r]);
+            }
+            subBytes(q, w, false);
+            shiftRows(q);
+            addRoundKey(q, rk[nr]);
+        } else {
+            addRoundKey(q, rk[nr]);
+            for (int r = nr - 1; r >= 1; r--) {
+                invShiftRows(q);
+                subBytes(q, w, true);
+                addRoundKey(q, rk[r]);
+                invMixColumns(q, w);
+            }
+            invShiftRows(q);
+            subBytes(q, w, true);
+            addRoundKey(q, rk[0]);
+        }
+        unpack(q, s, off);
+    }
+
+    // ---------------------------------------
+    // - layout -
+    // ---------------------------------------
+
+    /** Lane shift of state byte i (= col*4 + row) inside its half. */
+    private static int laneShift(int i) {
+        return ((i & 1) << 5) | ((i >>> 2) << 3); // (row&1)*32 + col*8
+    }
+
+    /** Half (0: rows 0/1, 1: rows 2/3) of state byte i. */
+    private static int laneHalf(int i) {
+        return (i >>> 1) & 1;
+    }
+
+    private static void pack(byte[] s, int off, long[] q) {
+        for (int j = 0; j < q.length; j++)
+            q[j] = 0;
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            long x = 0;
+            for (int b = 0; b < BLOCKS; b++) {
+                x |= (s[off + b * BLOCK_LENGTH + i] & 0xFFL) << (b << 3);
+            }
+            x = transpose8(x); // byte p now holds bit p of each block
+            int h = laneHalf(i);
+            int sh = laneShift(i);
+            for (int p = 0; p < 8; p++) {
+                q[(p << 1) | h] |= ((x >>> (p << 3)) & 0xFFL) << sh;
+            }
+        }
+    }
+
+    private static void unpack(long[] q, byte[] s, int off) {
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            int h = laneHalf(i);
+            int sh = laneShift(i);
+            long x = 0;
+            for (int p = 0; p < 8; p++) {
+                x |= ((q[(p << 1) | h] >>> sh) & 0xFFL) << (p << 3);
+            }
+            x = transpose8(x);
+            for (int b = 0; b < BLOCKS; b++) {
+                s[off + b * BLOCK_LENGTH + i] = (byte) (x >>> (b << 3));
+            }
+        }
+    }
+
+    /** Transposes an 8x8 bit matrix (row i = byte i, column j = bit j). */
+    private static long transpose8(long x) {
+        long t;
+        t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        x = x ^ t ^ (t << 28);
+        return x;
+    }
+
+    /** Round keys broadcast to all 8 blocks: [Nr+1][16] planes (cached by KeySchedule.bitslicedRoundKeys). */
+    static long[][] roundKeyPlanes(KeySchedule ks) {
+        int nr = ks.getNr();
+        long[][] rk = new long[nr + 1][16];
+        for (int r = 0; r <= nr; r++) {
+            byte[] k = ks.roundKey(r);
+            long[] q = rk[r];
+            for (int i = 0; i < BLOCK_LENGTH; i++) {
+                int h = laneHalf(i);
+                int sh = laneShift(i);
+                for (int p = 0; p < 8; p++) {
+                    long lane = (-(long) ((k[i] >>> p) & 1)) & 0xFFL; // all 8 blocks or none, no branch
+                    q[(p << 1) | h] |= lane << sh;
+                }
+            }
+        }
+        return rk;
+    }
+
+    // ---------------------------------------
+    // - round functions -
+    // ---------------------------------------
+
+    private static void addRoundKey(long[] q, long[] k) {
+        for (int j = 0; j < 16; j++)
+            q[j] ^= k[j];
+    }
+
+    private static void shiftRows(long[] q) {
+        for (int p = 0; p < 8; p++) {
+            q[p << 1] = rows(q[p << 1], 0, 8);
+            q[(p << 1) | 1] = rows(q[(p << 1) | 1], 16, 24);
+        }
+    }
+
+    private static void invShiftRows(long[] q) {
+        for (int p = 0; p < 8; p++) {
+            q[p << 1] = rows(q[p << 1], 0, 32 - 8);
+            q[(p << 1) | 1] = rows(q[(p << 1) | 1], 32 - 16, 32 - 24);
+        }
+    }
+
+    /** Rotates the low and high 32-bit rows right by lo/hi bits. */
+    private static long rows(long x, int lo, int hi) {
+        long l = Integer.rotateRight((int) x, lo) & 0xFFFFFFFFL;
+        long h = Integer.rotateRight((int) (x >>> 32), hi) & 0xFFFFFFFFL;
+        return l | (h << 32);
+    }
+
+    /*
+     * With A = (r0, r1), B = (r2, r3), X = (r1, r2), Y = (r3, r0) per plane:
+     * A' = 2(A ^ X) ^ X ^ B ^ Y and B' = 2(B ^ Y) ^ Y ^ A ^ X.
+     */
+    private static void mixColumns(long[] q, Work w) {
+        long[] u = w.u;
+        long[] v = w.v;
+        long[] rest = w.t;
+        for (int p = 0; p < 8; p++) {
+            long a = q[p << 1];
+            long b = q[(p << 1) | 1];
+            long x = (a >>> 32) | (b << 32);
+            long y = (b >>> 32) | (a << 32);
+            u[p] = a ^ x;
+            v[p] = b ^ y;
+            rest[p] = a ^ b ^ x ^ y; // common part: X ^ B ^ Y = rest ^ A, Y ^ A ^ X = rest ^ B
+        }
+        xtime(u);
+        xtime(v);
+        for (int p = 0; p < 8; p++) {
+            q[p << 1] ^= u[p] ^ rest[p];
+            q[(p << 1) | 1] ^= v[p] ^ rest[p];
+        }
+    }
+
+    /*
+     * InvMixColumns = MixColumns o P with P(a)_r = a_r ^ 4 (a_r ^ a_{r+2}), i.e.
+     * circ(0e 0b 0d 09) = circ(02 03 01 01) * circ(05 00 04 00).
+     */
+    private static void invMixColumns(long[] q, Work w) {
+        long[] d = w.u;
+        for (int p = 0; p < 8; p++) {
+            d[p] = q[p << 1] ^ q[(p << 1) | 1];
+        }
+        xtime(d);
+        xtime(d);
+        for (int p = 0; p < 8; p++) {
+            q[p << 1] ^= d[p];
+            q[(p << 1) | 1] ^= d[p];
+        }
+        mixColumns(q, w);
+    }
+
+    /** Multiplies every lane by x modulo x^8 + x^4 + x^3 + x + 1. */
+    private static void xtime(long[] u) {
+        long hi = u[7];
+        u[7] = u[6];
+        u[6] = u[5];
+        u[5] = u[4];
+        u[4] = u[3] ^ hi;
+        u[3] = u[2] ^ hi;
+        u[2] = u[1];
+        u[1] = u[0] ^ hi;
+        u[0] = hi;
+    }
+
+    // ---------------------------------------
+    // - S-box circuit -
+    // ---------------------------------------
+
+    private static void subBytes(long[] q, Work w, boolean inverse) {
+        for (int h = 0; h < 2; h++) {
+            if (inverse) {
+                // S^-1(y) = B(S(B(y ^ 0x63)) ^ 0x63), B the inverse of the affine map
+                invAffine(q, h, w.t);
+                sbox(q, h);
+                invAffine(q, h, w.t);
+            } else {
+                sbox(q, h);
+            }
+        }
+    }
+
+    /** Half h of q <- B(q ^ 0x63): b_i = b_{i+2} ^ b_{i+5} ^ b_{i+7} with 0x63 folded in (indices mod 8). */
+    private static void invAffine(long[] q, int h, long[] t) {
+        for (int i = 0; i < 8; i++)
+            t[i] = q[(i << 1) | h];
+        t[0] = ~t[0];
+        t[1] = ~t[1];
+        t[5] = ~t[5];
+        t[6] = ~t[6];
+        for (int i = 0; i < 8; i++)
+            q[(i << 1) | h] = t[(i + 2) & 7] ^ t[(i + 5) & 7] ^ t[(i + 7) & 7];
+    }
+
+    /**
+     * Forward S-box on half h of q (bit p in q[2p + h]), Boyar and Peralta's depth-16
+     * circuit: a linear top layer, the shared GF(2^4)-based inversion core,
+     * then a linear bottom layer with the affine constant folded into XNORs.
+     */
+    private static void sbox(long[] q, int h) {
+        long x0 = q[14 | h], x1 = q[12 | h], x2 = q[10 | h], x3 = q[8 | h];
+        long x4 = q[6 | h], x5 = q[4 | h], x6 = q[2 | h], x7 = q[h];
+
+        // top linear layer
+        long y14 = x3 ^ x5;
+        long y13 = x0 ^ x6;
+        long y9 = x0 ^ x3;
+        long y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7;
+        long y4 = y1 ^ x3;
+        long y12 = y13 ^ y14;
+        long y2 = y1 ^ x0;
+        long y5 = y1 ^ x6;
+        long y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5;
+        long y20 = t1 ^ x1;
+        long y6 = y15 ^ x7;
+        long y10 = y15 ^ t0;
+        long y11 = y20 ^ y9;
+        long y7 = x7 ^ y11;
+        long y17 = y10 ^ y11;
+        long y19 = y10 ^ y8;
+        long y16 = t0 ^ y11;
+        long y21 = y13 ^ y16;
+        long y18 = x0 ^ y16;
+
+        // non-linear core
+        long t2 = y12 & y15;
+        long t3 = y3 & y6;
+        long t4 = t3 ^ t2;
+        long t5 = y4 & x7;
+        long t6 = t5 ^ t2;
+        long t7 = y13 & y16;
+        long t8 = y5 & y1;
+        long t9 = t8 ^ t7;
+        long t10 = y2 & y7;
+        long t11 = t10 ^ t7;
+        long t12 = y9 & y11;
+        long t13 = y14 & y17;
+        long t14 = t13 ^ t12;
+        long t15 = y8 & y10;
+        long t16 = t15 ^ t12;
+        long t17 = t4 ^ t14;
+        long t18 = t6 ^ t16;
+        long t19 = t9 ^ t14;
+        long t20 = t11 ^ t16;
+        long t21 = t17 ^ y20;
+        long t22 = t18 ^ y19;
+        long t23 = t19 ^ y21;
+        long t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22;
+        long t26 = t21 & t23;
+        long t27 = t24 ^ t26;
+        long t28 = t25 & t27;
+        long t29 = t28 ^ t22;
+        long t30 = t23 ^ t24;
+        long t31 = t22 ^ t26;
+        long t32 = t31 & t30;
+        long t33 = t32 ^ t24;
+        long t34 = t23 ^ t33;
+        long t35 = t27 ^ t33;
+        long t36 = t24 & t35;
+        long t37 = t36 ^ t34;
+        long t38 = t27 ^ t36;
+        long t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37;
+        long t42 = t29 ^ t33;
+        long t43 = t29 ^ t40;
+        long t44 = t33 ^ t37;
+        long t45 = t42 ^ t41;
+        long z0 = t44 & y15;
+        long z1 = t37 & y6;
+        long z2 = t33 & x7;
+        long z3 = t43 & y16;
+        long z4 = t40 & y1;
+        long z5 = t29 & y7;
+        long z6 = t42 & y11;
+        long z7 = t45 & y17;
+        long z8 = t41 & y10;
+        long z9 = t44 & y12;
+        long z10 = t37 & y3;
+        long z11 = t33 & y4;
+        long z12 = t43 & y13;
+        long z13 = t40 & y5;
+        long z14 = t29 & y2;
+        long z15 = t42 & y9;
+        long z16 = t45 & y14;
+        long z17 = t41 & y8;
+
+        // bottom linear layer
+        long t46 = z15 ^ z16;
+        long t47 = z10 ^ z11;
+        long t48 = z5 ^ z13;
+        long t49 = z9 ^ z10;
+        long t50 = z2 ^ z12;
+        long t51 = z2 ^ z5;
+        long t52 = z7 ^ z8;
+        long t53 = z0 ^ z3;
+        long t54 = z6 ^ z7;
+        long t55 = z16 ^ z17;
+        long t56 = z12 ^ t48;
+        long t57 = t50 ^ t53;
+        long t58 = z4 ^ t46;
+        long t59 = z3 ^ t54;
+        long t60 = t46 ^ t57;
+        long t61 = z14 ^ t57;
+        long t62 = t52 ^ t58;
+        long t63 = t49 ^ t58;
+        long t64 = z4 ^ t59;
+        long t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63;
+        long s6 = t56 ^ ~t62;
+        long s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66;
+        long s4 = t51 ^ t66;
+        long s5 = t47 ^ t65;
+        long s1 = t64 ^ ~s3;
+        long s2 = t55 ^ ~t67;
+
+        q[14 | h] = s0;
+        q[12 | h] = s1;
+        q[10 | h] = s2;
+        q[8 | h] = s3;
+        q[6 | h] = s4;
+        q[4 | h] = s5;
+        q[2 | h] = s6;
+        q[h] = s7;
+    }
+
+    /** Per-thread scratch so the round loop and the tail group do not allocate. */
+    private static final class Work {
+        final long[] q = new long[16];
+        final long[] u = new long[8];
+        final long[] v = new long[8];
+        final long[] t = new long[8];
+        final byte[] tail = new byte[GROUP];
+    }
+}
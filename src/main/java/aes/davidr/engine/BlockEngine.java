@@ -0,0 +1,59 @@
+package aes.davidr.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A raw AES block transform. Implementations are stateless and thread-safe;
+ * all per-key state lives in the {@link KeySchedule}.
+ *
+ * Lengths are in bytes and MUST be multiples of 16. Range checks are the
+ * caller's job (see {@code ECB}).
+ */
+public interface BlockEngine {
+
+    /** Short, stable name used by -Daes.davidr.engine and {@link BlockEngines}. */
+    String name();
+
+    /** In-place single block at off. */
+    void processBlock(boolean mode, byte[] s, KeySchedule ks, int off);
+
+    /** In-place bulk: len bytes from off. */
+    default void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+        for (int p = off; p < off + len; p += 16) {
+            processBlock(mode, s, ks, p);
+        }
+    }
+
+    /**
+     * len bytes from in[inOff] to out[outOff]. Overlapping ranges behave as if
+     * the input were copied first.
+     */
+    default void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff, KeySchedule ks) {
+        if (in != out || inOff != outOff)
+            System.arraycopy(in, inOff, out, outOff, len);
+        processBlocks(mode, out, ks, outOff, len);
+    }
+
+    /**
+     * in.remaining() bytes from in to out, advancing both positions. Heap
+     * buffers go through the array variant; anything else is staged through a
+     * heap chunk. out may be the same memory as in or trail behind it.
+     */
+    default void processBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks) {
+        int len = in.remaining();
+        if (in.hasArray() && out.hasArray()) {
+            processBlocks(mode, in.array(), in.arrayOffset() + in.position(), len,
+                    out.array(), out.arrayOffset() + out.position(), ks);
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(len, 8192)];
+        while (in.hasRemaining()) {
+            int n = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, n);
+            processBlocks(mode, chunk, ks, 0, n);
+            out.put(chunk, 0, n);
+        }
+    }
+}
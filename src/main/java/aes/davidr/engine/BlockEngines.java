@@ -0,0 +1,308 @@
+package aes.davidr.engine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Registry of the available {@link BlockEngine}s and the one the library uses.
+ *
+ * On first use every engine is checked against FIPS-197 vectors and the
+ * reference engine; the first correct one in {@link #available()} order
+ * (JCE, vector, table, bitsliced, reference) is selected, so the choice is the
+ * same on every run of a given JVM. -Daes.davidr.engine=NAME pins an engine.
+ *
+ * -Daes.davidr.engine.calibrate=true opts into timing instead: each correct
+ * engine is warmed up until its throughput settles (at most about a second per
+ * engine, so startup blocks for a few seconds) and the fastest one wins.
+ */
+public final class BlockEngines {
+    public static final String ENGINE_PROPERTY = "aes.davidr.engine";
+    public static final String CALIBRATE_PROPERTY = "aes.davidr.engine.calibrate";
+
+    public static final BlockEngine REFERENCE = new Reference();
+    public static final BlockEngine TABLE = new Table();
+    public static final BlockEngine BITSLICED = new Bitsliced();
+    private static final BlockEngine VECTOR = new Vector();
+    private static final BlockEngine JCE = new JceEngine();
+
+    private static final int CALIBRATION_BYTES = 16 * 1024;
+    private static final long MIN_MEASURE_NANOS = 300_000_000L; // per engine, before rounds are compared
+    private static final long MAX_MEASURE_NANOS = 1_000_000_000L;
+    private static final int TIMED_RUNS = 5;
+    private static final double STABLE = 0.05; // consecutive rounds within 5%
+
+    private static volatile Selection selection;
+
+    private BlockEngines() {
+    }
+
+    /** The engine ECB and everything above it runs on. */
+    public static BlockEngine selected() {
+        return selection().engine;
+    }
+
+    public static String selectedName() {
+        return selected().name();
+    }
+
+    /** Every registered engine usable in this JVM, preferred first. */
+    public static List<BlockEngine> available() {
+        List<BlockEngine> list = new ArrayList<>();
+        if (JceEngine.isAvailable())
+            list.add(JCE);
+        if (SimdAES.isAvailable())
+            list.add(VECTOR);
+        list.add(TABLE);
+        list.add(BITSLICED);
+        list.add(REFERENCE);
+        return Collections.unmodifiableList(list);
+    }
+
+    public static BlockEngine byName(String name) {
+        for (BlockEngine e : available()) {
+            if (e.name().equals(name))
+                return e;
+        }
+        throw new IllegalArgumentException("unknown engine '" + name + "', available: " + names());
+    }
+
+    /**
+     * Measured throughput in MB/s per engine name (empty when pinned or not
+     * calibrated); engines that failed the correctness check map to -1.
+     */
+    public static Map<String, Double> calibration() {
+        return selection().throughput;
+    }
+
+    /** One line for logs: selected engine, how it was chosen and the measurements. */
+    public static String report() {
+        Selection s = selection();
+        return "engine=" + s.engine.name() + " (" + s.reason + ") " + s.throughput;
+    }
+
+    private static Selection selection() {
+        Selection s = selection;
+        if (s == null) {
+            synchronized (BlockEngines.class) {
+                s = selection;
+                if (s == null) {
+                    s = select();
+                    selection = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private static Selection select() {
+        String pinned = System.getProperty(ENGINE_PROPERTY);
+        if (pinned != null && !pinned.isEmpty()) {
+            BlockEngine e = byName(pinned.trim());
+            if (!isCorrect(e))
+                throw new IllegalStateException("pinned engine '" + e.name() + "' failed its self-test");
+            return new Selection(e, "pinned by -D" + ENGINE_PROPERTY, Collections.emptyMap());
+        }
+
+        boolean calibrate = Boolean.parseBoolean(System.getProperty(CALIBRATE_PROPERTY, "false"));
+        Map<String, Double> results = new LinkedHashMap<>();
+        BlockEngine best = null;
+        double bestRate = -1;
+        for (BlockEngine e : available()) {
+            if (!isCorrect(e)) {
+                results.put(e.name(), -1.0);
+                continue;
+            }
+            if (!calibrate) {
+                return new Selection(e, "first correct", Collections.emptyMap());
+            }
+            double rate = measure(e);
+            results.put(e.name(), rate);
+            if (rate > bestRate) {
+                bestRate = rate;
+                best = e;
+            }
+        }
+        if (best == null)
+            best = REFERENCE; // cannot happen unless the reference itself is broken
+        return new Selection(best, "calibrated", Collections.unmodifiableMap(results));
+    }
+
+    private static String names() {
+        List<String> n = new ArrayList<>();
+        for (BlockEngine e : available())
+            n.add(e.name());
+        return n.toString();
+    }
+
+    // ---------------------------------------
+    // - calibration -
+    // ---------------------------------------
+
+    static boolean isCorrect(BlockEngine e) {
+        try {
+            byte[] pt = hex("00112233445566778899AABBCCDDEEFF");
+            String[][] kats = {
+                    { "000102030405060708090A0B0C0D0E0F", "69C4E0D86A7B0430D8CDB78070B4C55A" },
+                    { "000102030405060708090A0B0C0D0E0F1011121314151617", "DDA97CA4864CDFE06EAF70A0EC0D7191" },
+                    { "000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F",
+                            "8EA2B7CA516745BFEAFC49904B496089" } };
+            for (String[] kat : kats) {
+                KeySchedule ks = new KeySchedule(hex(kat[0]));
+                byte[] ct = hex(kat[1]);
+                byte[] b = pt.clone();
+                e.processBlock(AES.ENCRYPT_MODE, b, ks, 0);
+                if (!Arrays.equals(b, ct))
+                    return false;
+                e.processBlock(AES.DECRYPT_MODE, b, ks, 0);
+                if (!Arrays.equals(b, pt))
+                    return false;
+            }
+
+            // bulk path against the reference, odd offset and a non-power-of-two block count
+            Random rnd = new Random(0x5EED);
+            byte[] key = new byte[32];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+            byte[] data = new byte[3 + 16 * 67];
+            rnd.nextBytes(data);
+            byte[] ref = data.clone();
+            byte[] got = data.clone();
+            for (int p = 3; p < ref.length; p += 16)
+                AES.blockRun(AES.ENCRYPT_MODE, ref, ks, p);
+            e.processBlocks(AES.ENCRYPT_MODE, got, ks, 3, got.length - 3);
+            if (!Arrays.equals(ref, got))
+                return false;
+            byte[] out = new byte[got.length];
+            e.processBlocks(AES.DECRYPT_MODE, got, 3, got.length - 3, out, 3, ks);
+            return Arrays.equals(Arrays.copyOfRange(data, 3, data.length),
+                    Arrays.copyOfRange(out, 3, out.length));
+        } catch (RuntimeException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Encrypt+decrypt throughput in MB/s: best-of-N rounds repeated until, past
+     * a minimum warmup, two consecutive rounds agree within STABLE (the JIT has
+     * settled) or the time budget runs out.
+     */
+    private static double measure(BlockEngine e) {
+        byte[] key = new byte[16];
+        KeySchedule ks = new KeySchedule(key);
+        byte[] buf = new byte[CALIBRATION_BYTES];
+        long start = System.nanoTime();
+        double last = 0;
+        while (true) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                long t0 = System.nanoTime();
+                e.processBlocks(AES.ENCRYPT_MODE, buf, ks, 0, buf.length);
+                e.processBlocks(AES.DECRYPT_MODE, buf, ks, 0, buf.length);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            double rate = (2.0 * buf.length / (1024.0 * 1024.0)) / (Math.max(best, 1) / 1e9);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > MIN_MEASURE_NANOS && Math.abs(rate - last) <= STABLE * rate || elapsed > MAX_MEASURE_NANOS)
+                return rate;
+            last = rate;
+        }
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+
+    private static final class Selection {
+        final BlockEngine engine;
+        final String reason;
+        final Map<String, Double> throughput;
+
+        Selection(BlockEngine engine, String reason, Map<String, Double> throughput) {
+            this.engine = engine;
+            this.reason = reason;
+            this.throughput = throughput;
+        }
+    }
+
+    // ---------------------------------------
+    // - built-in engines -
+    // ---------------------------------------
+
+    /** The original byte-wise round functions in {@link AES}. */
+    private static final class Reference implements BlockEngine {
+        @Override public String name() { return "reference"; }
+
+        @Override public void processBlock(boolean mode, byte[] s, KeySchedule ks, int off) {
+            AES.blockRun(mode, s, ks, off);
+        }
+    }
+
+    private static final class Table implements BlockEngine {
+        @Override public String name() { return "table"; }
+
+        @Override public void processBlock(boolean mode, byte[] s, KeySchedule ks, int off) {
+            TableAES.blockRun(mode, s, ks, off);
+        }
+
+        @Override public void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+            TableAES.processBlocks(mode, s, ks, off, len);
+        }
+
+        @Override public void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+                KeySchedule ks) {
+            TableAES.processBlocks(mode, in, inOff, len, out, outOff, ks);
+        }
+
+        @Override public void processBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks) {
+            TableAES.processBlocks(mode, in, out, ks);
+        }
+    }
+
+    private static final class Bitsliced implements BlockEngine {
+        @Override public String name() { return "bitsliced"; }
+
+        @Override public void processBlock(boolean mode, byte[] s, KeySchedule ks, int off) {
+            BitslicedAES.processBlocks(mode, s, ks, off, 16);
+        }
+
+        @Override public void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+            BitslicedAES.processBlocks(mode, s, ks, off, len);
+        }
+    }
+
+    /** Whole vectors on {@link SimdAES}, the tail on the T-tables. */
+    private static final class Vector implements BlockEngine {
+        @Override public String name() { return "vector"; }
+
+        @Override public void processBlock(boolean mode, byte[] s, KeySchedule ks, int off) {
+            TableAES.blockRun(mode, s, ks, off);
+        }
+
+        @Override public void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+            processBlocks(mode, s, off, len, s, off, ks);
+        }
+
+        @Override public void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+                KeySchedule ks) {
+            if (in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len) {
+                System.arraycopy(in, inOff, out, outOff, len);
+                inOff = outOff;
+            }
+            int vec = SimdAES.vectorBytes();
+            int done = vec == 0 ? 0 : len - len % vec;
+            if (done != 0)
+                SimdAES.processBlocks(mode, in, inOff, done, out, outOff, ks);
+            if (done < len)
+                TableAES.processBlocks(mode, in, inOff + done, len - done, out, outOff + done, ks);
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package aes.davidr.engine;
 
-class GaloisField {
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * GF(2^8) arithmetic for the AES round functions, and GF(2^128) multiplication
+ * for GHASH (GCM) and POLYVAL (GCM-SIV) through {@link Gf128Table}.
+ */
+public class GaloisField {
     private static byte xtime(byte b) {
         int x = b & 0xFF;
         int r = x << 1;
@@ -45,4 +53,80 @@ class GaloisField {
     static byte mul14(byte b) {
         return (byte) (((mul8(b) ^ mul4(b)) ^ mul2(b)) & 0xFF);
     }
+
+    /**
+     * Multiplication by a fixed H in GF(2^128), GCM bit order (x^128 + x^7 + x^2
+     * + x + 1, bit 0 of the field element is the MSB of byte 0). Elements are two
+     * big-endian longs {hi, lo}.
+     *
+     * Shoup's 4-bit method: 16 precomputed multiples of H (256 bytes, built once
+     * per key) and one 16-entry reduction table; a multiply is 32 lookups, shifts
+     * and XORs instead of 128 conditional shift-and-add steps.
+     */
+    public static final class Gf128Table {
+        private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class,
+                ByteOrder.BIG_ENDIAN);
+        private static final long[] LAST4 = {
+                0x0000, 0x1c20, 0x3840, 0x2460, 0x7080, 0x6ca0, 0x48c0, 0x54e0,
+                0xe100, 0xfd20, 0xd940, 0xc560, 0x9180, 0x8da0, 0xa9c0, 0xb5e0 };
+
+        private final long[] hh = new long[16];
+        private final long[] hl = new long[16];
+
+        public Gf128Table(long hHi, long hLo) {
+            // hh/hl[i] = i * H, index bits read most significant first
+            long vh = hHi;
+            long vl = hLo;
+            hh[8] = vh;
+            hl[8] = vl;
+            for (int i = 4; i > 0; i >>= 1) {
+                long t = (vl & 1) * 0xe1000000L;
+                vl = (vh << 63) | (vl >>> 1);
+                vh = (vh >>> 1) ^ (t << 32);
+                hh[i] = vh;
+                hl[i] = vl;
+            }
+            for (int i = 2; i <= 8; i <<= 1) {
+                for (int j = 1; j < i; j++) {
+                    hh[i + j] = hh[i] ^ hh[j];
+                    hl[i + j] = hl[i] ^ hl[j];
+                }
+            }
+        }
+
+        /** x = x * H in place; x is {hi, lo}. */
+        public void multiply(long[] x) {
+            long xh = x[0];
+            long xl = x[1];
+            int n = (int) xl & 0xF;
+            long zh = hh[n];
+            long zl = hl[n];
+            for (int i = 15; i >= 0; i--) {
+                int b = (int) ((i < 8 ? xh >>> (56 - 8 * i) : xl >>> (120 - 8 * i)) & 0xFF);
+                if (i != 15) {
+                    int rem = (int) zl & 0xF;
+                    zl = (zh << 60) | (zl >>> 4);
+                    zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+                    zh ^= hh[b & 0xF];
+                    zl ^= hl[b & 0xF];
+                }
+                int rem = (int) zl & 0xF;
+                zl = (zh << 60) | (zl >>> 4);
+                zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+                zh ^= hh[b >>> 4];
+                zl ^= hl[b >>> 4];
+            }
+            x[0] = zh;
+            x[1] = zl;
+        }
+
+        /** GHASH step for every whole block in data: y = (y ^ block) * H. len MUST be multiple of 16. */
+        public void absorb(long[] y, byte[] data, int off, int len) {
+            for (int p = off; p < off + len; p += 16) {
+                y[0] ^= (long) LONG_BE.get(data, p);
+                y[1] ^= (long) LONG_BE.get(data, p + 8);
+                multiply(y);
+            }
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package aes.davidr.engine;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Block engine backed by the platform's "AES/ECB/NoPadding" Cipher, which
+ * HotSpot intrinsifies with AES-NI / ARMv8 AES instructions where present.
+ *
+ * Each thread keeps its own pair of initialised Ciphers for the last key
+ * schedule it used, so repeated calls with the same key skip init. A
+ * destroyed schedule is refused with IllegalStateException, and its key is
+ * wiped from every thread's Ciphers. When the provider is missing or fails,
+ * calls run on {@link TableAES} instead.
+ */
+final class JceEngine implements BlockEngine {
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding";
+    private static final int STAGE = 8192; // in-place bytes per Cipher.update
+    private static final boolean AVAILABLE = probe();
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    @Override
+    public String name() {
+        return "jce";
+    }
+
+    @Override
+    public void processBlock(boolean mode, byte[] s, KeySchedule ks, int off) {
+        processBlocks(mode, s, off, 16, s, off, ks);
+    }
+
+    @Override
+    public void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+        processBlocks(mode, s, off, len, s, off, ks);
+    }
+
+    @Override
+    public void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff, KeySchedule ks) {
+        if (len == 0)
+            return;
+        if (AVAILABLE) {
+            try {
+                // Cipher.update is copy-safe, overlapping in/out included; ECB/NoPadding keeps no
+                // partial block, so aligned input always comes back whole
+                State state = STATE.get();
+                synchronized (state) {
+                    Cipher c = state.cipher(mode, ks);
+                    if (in == out && inOff == outOff) {
+                        // in place it would copy the whole input into a new array first; stage it instead
+                        byte[] stage = state.stage;
+                        for (int p = 0; p < len; p += STAGE) {
+                            int n = Math.min(STAGE, len - p);
+                            System.arraycopy(in, inOff + p, stage, 0, n);
+                            c.update(stage, 0, n, out, outOff + p);
+                        }
+                    } else {
+                        c.update(in, inOff, len, out, outOff);
+                    }
+                }
+                return;
+            } catch (GeneralSecurityException e) {
+                // provider refused the key or transformation: pure-Java path below
+            }
+        }
+        if (in != out || inOff != outOff)
+            System.arraycopy(in, inOff, out, outOff, len);
+        TableAES.processBlocks(mode, out, ks, outOff, len);
+    }
+
+    @Override
+    public void processBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks) {
+        if (!in.hasRemaining())
+            return;
+        if (AVAILABLE) {
+            try {
+                State state = STATE.get();
+                synchronized (state) {
+                    state.cipher(mode, ks).update(in, out);
+                }
+                return;
+            } catch (GeneralSecurityException e) {
+                // same fallback as the array path
+            }
+        }
+        TableAES.processBlocks(mode, in, out, ks);
+    }
+
+    private static boolean probe() {
+        try {
+            Cipher.getInstance(TRANSFORMATION).init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"));
+            return true;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A thread's Ciphers, re-keyed when the thread moves to another schedule.
+     * Each schedule it keys them for holds the State, weakly, as a destroy
+     * hook that overwrites the Ciphers' key with zeros from the destroying
+     * thread, so an evicted key does not outlive its schedule in an idle
+     * thread. Hence the lock: callers hold it from cipher() to the end of
+     * their update.
+     */
+    private static final class State implements Runnable {
+        private static final SecretKeySpec ZERO_KEY = new SecretKeySpec(new byte[16], "AES");
+        private static final WeakReference<KeySchedule> NONE = new WeakReference<>(null);
+
+        private Cipher enc;
+        private Cipher dec;
+        private WeakReference<KeySchedule> encKey = NONE; // schedule enc is keyed for
+        private WeakReference<KeySchedule> decKey = NONE;
+        final byte[] stage = new byte[STAGE];
+
+        Cipher cipher(boolean mode, KeySchedule ks) throws GeneralSecurityException {
+            if (ks.isDestroyed())
+                throw new IllegalStateException("key schedule destroyed");
+            if (mode) {
+                if (encKey.get() != ks) {
+                    enc = init(enc, Cipher.ENCRYPT_MODE, new SecretKeySpec(ks.rawKey(), "AES"));
+                    encKey = new WeakReference<>(ks);
+                    ks.onDestroy(this);
+                }
+                return enc;
+            }
+            if (decKey.get() != ks) {
+                dec = init(dec, Cipher.DECRYPT_MODE, new SecretKeySpec(ks.rawKey(), "AES"));
+                decKey = new WeakReference<>(ks);
+                ks.onDestroy(this);
+            }
+            return dec;
+        }
+
+        /** Destroy hook: re-keys with zeros whichever Cipher holds a destroyed key. */
+        @Override
+        public synchronized void run() {
+            try {
+                if (enc != null && isDead(encKey)) {
+                    encKey = NONE;
+                    enc.init(Cipher.ENCRYPT_MODE, ZERO_KEY);
+                }
+                if (dec != null && isDead(decKey)) {
+                    decKey = NONE;
+                    dec.init(Cipher.DECRYPT_MODE, ZERO_KEY);
+                }
+            } catch (GeneralSecurityException e) {
+                enc = null; // cannot overwrite them: let them go
+                dec = null;
+                encKey = NONE;
+                decKey = NONE;
+            }
+        }
+
+        private static boolean isDead(WeakReference<KeySchedule> ref) {
+            KeySchedule ks = ref.get();
+            return ks == null || ks.isDestroyed();
+        }
+
+        private static Cipher init(Cipher c, int opmode, SecretKeySpec key) throws GeneralSecurityException {
+            if (c == null)
+                c = Cipher.getInstance(TRANSFORMATION);
+            c.init(opmode, key);
+            return c;
+        }
+    }
+}
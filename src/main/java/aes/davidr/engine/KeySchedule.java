@@ -7,7 +7,12 @@ public class KeySchedule {
     private final int Nk; // 4 / 6 / 8
     private final int Nr; // 10 / 12 / 14
     private final int[] w; // expanded words: 4*(Nr+1)
+    private final byte[] key; // cipher key, for engines that expand it themselves (JCE)
     private final byte[][] roundKeyCache; // [Nr+1][16]
+    private volatile int[] dw; // equivalent inverse cipher words, built on first decrypt
+    private volatile long[][] bitsliced; // BitslicedAES round key planes, built on first use
+    private volatile boolean destroyed;
+    private java.util.Set<Runnable> destroyHooks; // weak, guarded by this
 
     public static final int AES_128 = 16;
     public static final int AES_192 = 24;
@@ -46,6 +51,7 @@ public class KeySchedule {
         if (len != 16 && len != 24 && len != 32)
             throw new IllegalArgumentException("key must be 16/24/32 bytes");
 
+        this.key = key.clone();
         this.Nk = len / 4; // Number of original Key words
         this.Nr = (Nk == 4) ? 10 : (Nk == 6 ? 12 : 14); // Number of AES Rounds
         int totalWords = 4 * (Nr + 1); // Number of round keys to be generated
@@ -80,6 +86,60 @@ public class KeySchedule {
 
     }
 
+    /**
+     * Overwrites the cipher key and every expanded round key with zeros. The
+     * schedule must not be used afterwards; callers that share schedules (see
+     * AesCipher's key cache) destroy one only when nobody holds it any more.
+     * Engines that keep the key elsewhere (JCE Ciphers) are told to drop it.
+     */
+    public void destroy() {
+        destroyed = true;
+        java.util.Arrays.fill(key, (byte) 0);
+        java.util.Arrays.fill(w, 0);
+        for (byte[] rk : roundKeyCache)
+            java.util.Arrays.fill(rk, (byte) 0);
+        int[] d = dw;
+        if (d != null)
+            java.util.Arrays.fill(d, 0);
+        long[][] b = bitsliced;
+        if (b != null)
+            for (long[] planes : b)
+                java.util.Arrays.fill(planes, 0);
+        Runnable[] hooks;
+        synchronized (this) {
+            hooks = destroyHooks == null ? new Runnable[0] : destroyHooks.toArray(new Runnable[0]);
+            destroyHooks = null;
+        }
+        for (Runnable hook : hooks)
+            hook.run();
+    }
+
+    /** Destroy hooks still registered, for tests. */
+    synchronized int destroyHookCount() {
+        return destroyHooks == null ? 0 : destroyHooks.size();
+    }
+
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Runs hook when this schedule is destroyed, or at once if it already is.
+     * Registering the same hook again is a no-op. Hooks are held weakly: one
+     * nobody else references (a finished thread's JCE state) is dropped.
+     */
+    void onDestroy(Runnable hook) {
+        synchronized (this) {
+            if (!destroyed) {
+                if (destroyHooks == null)
+                    destroyHooks = java.util.Collections.newSetFromMap(new java.util.WeakHashMap<>());
+                destroyHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
     public int getNr() {
         return Nr;
     }
@@ -90,6 +150,62 @@ public class KeySchedule {
         return roundKeyCache[r];
     }
 
+    /** True when both schedules were expanded from the same cipher key; compares in constant time. */
+    public boolean sameKey(KeySchedule other) {
+        if (other == null)
+            throw new IllegalArgumentException("null");
+        return java.security.MessageDigest.isEqual(key, other.key);
+    }
+
+    /** The 16/24/32-byte cipher key this schedule was expanded from (not a copy). */
+    byte[] rawKey() {
+        return key;
+    }
+
+    /** Expanded key as big-endian column words, 4 per round (not a copy). */
+    int[] words() {
+        return w;
+    }
+
+    /**
+     * Decryption words for the FIPS-197 equivalent inverse cipher: round keys in
+     * reverse order with InvMixColumns applied to rounds 1..Nr-1. Built once per key.
+     */
+    int[] decryptionWords() {
+        int[] d = dw;
+        if (d == null) {
+            d = buildDecryptionWords();
+            dw = d;
+        }
+        return d;
+    }
+
+    /** Round keys as BitslicedAES bit planes, [Nr+1][16]. Built once per key. */
+    long[][] bitslicedRoundKeys() {
+        long[][] b = bitsliced;
+        if (b == null) {
+            b = BitslicedAES.roundKeyPlanes(this);
+            bitsliced = b;
+        }
+        return b;
+    }
+
+    private int[] buildDecryptionWords() {
+        int[] d = new int[w.length];
+        for (int r = 0; r <= Nr; r++) {
+            int src = 4 * (Nr - r);
+            for (int c = 0; c < 4; c++) {
+                int word = w[src + c];
+                d[4 * r + c] = (r == 0 || r == Nr) ? word : invMixColumn(word);
+            }
+        }
+        return d;
+    }
+
+    private static int invMixColumn(int x) { // TD tables carry Si, so feed them S[x]
+        return Tables.TD0[s(x >>> 24)] ^ Tables.TD1[s(x >>> 16)] ^ Tables.TD2[s(x >>> 8)] ^ Tables.TD3[s(x)];
+    }
+
     private static int s(int idx) { // Tables.S is byte[]
         return (Tables.S[idx & 0xFF]) & 0xFF;
     }
@@ -0,0 +1,78 @@
+package aes.davidr.engine;
+
+/**
+ * Entry point for the Vector API engine. The incubator module is optional: when
+ * it is missing (no --add-modules jdk.incubator.vector) or disabled with
+ * -Daes.davidr.vector=false, every call takes the scalar path instead.
+ */
+public final class SimdAES {
+    private static final int BLOCK_LENGTH = 16;
+    private static final boolean AVAILABLE = probe();
+
+    private SimdAES() {
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /** Bytes handled per vector step, 0 when the vector engine is unavailable. */
+    public static int vectorBytes() {
+        return AVAILABLE ? VectorAES.LANES : 0;
+    }
+
+    /** In-place bulk processing of len bytes from off. len MUST be multiple of 16. */
+    public static void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+        processBlocks(mode, s, off, len, s, off, ks);
+    }
+
+    /**
+     * len bytes (multiple of 16) from in[inOff] to out[outOff]. A shifted overlap
+     * of the two ranges is copied into place first.
+     */
+    public static void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks) {
+        if ((len & (BLOCK_LENGTH - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+        if (in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len) {
+            System.arraycopy(in, inOff, out, outOff, len);
+            inOff = outOff;
+        }
+        int done = AVAILABLE ? VectorAES.processBlocks(mode, in, inOff, len, out, outOff, ks) : 0;
+        if (done < len && (in != out || inOff != outOff))
+            System.arraycopy(in, inOff + done, out, outOff + done, len - done);
+        for (int p = outOff + done; p < outOff + len; p += BLOCK_LENGTH) {
+            AES.blockRun(mode, out, ks, p);
+        }
+    }
+
+    private static boolean probe() {
+        if (!Boolean.parseBoolean(System.getProperty("aes.davidr.vector", "true")))
+            return false;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return false;
+        try {
+            // FIPS-197 C.1 through the vector path before trusting it
+            byte[] key = new byte[16];
+            byte[] block = new byte[VectorAES.LANES];
+            for (int i = 0; i < 16; i++)
+                key[i] = (byte) i;
+            for (int i = 0; i < block.length; i++)
+                block[i] = (byte) ((i & 15) * 0x11);
+            KeySchedule ks = new KeySchedule(key);
+            if (VectorAES.processBlocks(AES.ENCRYPT_MODE, block, 0, block.length, block, 0, ks) != block.length)
+                return false;
+            byte[] ref = new byte[16];
+            for (int i = 0; i < 16; i++)
+                ref[i] = (byte) (i * 0x11);
+            AES.blockRun(AES.ENCRYPT_MODE, ref, ks, 0);
+            for (int i = 0; i < block.length; i++) {
+                if (block[i] != ref[i & 15])
+                    return false;
+            }
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+}
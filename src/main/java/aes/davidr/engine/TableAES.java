@@ -0,0 +1,377 @@
+package aes.davidr.engine;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 32-bit word AES. The state is kept in four big-endian column words and each
+ * full round (SubBytes + ShiftRows + MixColumns + AddRoundKey) is four T-table
+ * lookups and XORs per column.
+ */
+public final class TableAES {
+
+    private static final int[] TE0 = Tables.TE0;
+    private static final int[] TE1 = Tables.TE1;
+    private static final int[] TE2 = Tables.TE2;
+    private static final int[] TE3 = Tables.TE3;
+    private static final int[] TD0 = Tables.TD0;
+    private static final int[] TD1 = Tables.TD1;
+    private static final int[] TD2 = Tables.TD2;
+    private static final int[] TD3 = Tables.TD3;
+    private static final byte[] S = Tables.S;
+    private static final byte[] Si = Tables.Si;
+
+    // one bounds check and one (byte-swapped) load per column word instead of four byte loads
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /** Blocks that processBlocks runs through the rounds in lockstep. */
+    public static final int INTERLEAVE = 4;
+    private static final int GROUP = INTERLEAVE * 16;
+
+    private TableAES() {
+    }
+
+    public static byte[] blockRun(boolean mode, byte[] s, KeySchedule ks, int off) {
+        return mode ? encryptBlock(s, ks, off) : decryptBlock(s, ks, off);
+    }
+
+    public static byte[] blockRun(boolean mode, byte[] s, KeySchedule ks) {
+        return blockRun(mode, s, ks, 0);
+    }
+
+    /** One block from in[inOff] to out[outOff]; the block is read whole before out is written. */
+    public static byte[] blockRun(boolean mode, byte[] in, int inOff, byte[] out, int outOff, KeySchedule ks) {
+        if (mode)
+            encrypt(in, inOff, out, outOff, ks.words(), ks.getNr());
+        else
+            decrypt(in, inOff, out, outOff, ks.decryptionWords(), ks.getNr());
+        return out;
+    }
+
+    /** In-place encryption of the 16 bytes at off. */
+    public static byte[] encryptBlock(byte[] s, KeySchedule ks, int off) {
+        encrypt(s, off, s, off, ks.words(), ks.getNr());
+        return s;
+    }
+
+    /**
+     * In-place decryption of the 16 bytes at off using the equivalent inverse
+     * cipher, so it has the same shape and cost as encryption.
+     */
+    public static byte[] decryptBlock(byte[] s, KeySchedule ks, int off) {
+        decrypt(s, off, s, off, ks.decryptionWords(), ks.getNr());
+        return s;
+    }
+
+    /**
+     * In-place bulk processing of len bytes from off (multiple of 16). Groups of
+     * four independent blocks go through each round together with the round key
+     * words hoisted, so their table lookups overlap instead of forming one
+     * serial dependency chain per block.
+     */
+    public static void processBlocks(boolean mode, byte[] s, KeySchedule ks, int off, int len) {
+        processBlocks(mode, s, off, len, s, off, ks);
+    }
+
+    /**
+     * len bytes (multiple of 16) from in[inOff] to out[outOff], same pipeline as
+     * the in-place variant. Every block is read whole before it is written, so
+     * in == out at the same offset needs no copy; a shifted overlap is copied
+     * into place first.
+     */
+    public static void processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks) {
+        if (in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len) {
+            System.arraycopy(in, inOff, out, outOff, len);
+            inOff = outOff;
+        }
+        int[] rk = mode ? ks.words() : ks.decryptionWords();
+        int nr = ks.getNr();
+        int done = 0;
+        if (mode) {
+            for (; done + GROUP <= len; done += GROUP)
+                encrypt4(in, inOff + done, out, outOff + done, rk, nr);
+            for (; done < len; done += 16)
+                encrypt(in, inOff + done, out, outOff + done, rk, nr);
+        } else {
+            for (; done + GROUP <= len; done += GROUP)
+                decrypt4(in, inOff + done, out, outOff + done, rk, nr);
+            for (; done < len; done += 16)
+                decrypt(in, inOff + done, out, outOff + done, rk, nr);
+        }
+    }
+
+    /**
+     * in.remaining() bytes (multiple of 16) from in to out, advancing both
+     * positions. Heap buffers take the array path; direct buffers are read and
+     * written as big-endian ints in place, one block at a time. out may be the
+     * same memory as in or trail behind it, any other overlap is undefined.
+     */
+    public static void processBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks) {
+        int len = in.remaining();
+        int ip = in.position();
+        int op = out.position();
+        if (in.hasArray() && out.hasArray()) {
+            processBlocks(mode, in.array(), in.arrayOffset() + ip, len, out.array(), out.arrayOffset() + op, ks);
+        } else {
+            ByteBuffer src = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+            ByteBuffer dst = out.duplicate().order(ByteOrder.BIG_ENDIAN);
+            int[] rk = mode ? ks.words() : ks.decryptionWords();
+            int nr = ks.getNr();
+            for (int done = 0; done < len; done += 16) {
+                if (mode)
+                    encrypt(src, ip + done, dst, op + done, rk, nr);
+                else
+                    decrypt(src, ip + done, dst, op + done, rk, nr);
+            }
+        }
+        in.position(ip + len);
+        out.position(op + len);
+    }
+
+    private static void encrypt(byte[] in, int inOff, byte[] out, int outOff, int[] rk, int nr) {
+        int s0 = load(in, inOff) ^ rk[0];
+        int s1 = load(in, inOff + 4) ^ rk[1];
+        int s2 = load(in, inOff + 8) ^ rk[2];
+        int s3 = load(in, inOff + 12) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+
+        // last round: no MixColumns, plain S-box
+        store(out, outOff, finalWord(s0, s1, s2, s3) ^ rk[k]);
+        store(out, outOff + 4, finalWord(s1, s2, s3, s0) ^ rk[k + 1]);
+        store(out, outOff + 8, finalWord(s2, s3, s0, s1) ^ rk[k + 2]);
+        store(out, outOff + 12, finalWord(s3, s0, s1, s2) ^ rk[k + 3]);
+    }
+
+    private static void decrypt(byte[] in, int inOff, byte[] out, int outOff, int[] rk, int nr) {
+        int s0 = load(in, inOff) ^ rk[0];
+        int s1 = load(in, inOff + 4) ^ rk[1];
+        int s2 = load(in, inOff + 8) ^ rk[2];
+        int s3 = load(in, inOff + 12) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ rk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ rk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ rk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+
+        // last round: no InvMixColumns, plain inverse S-box
+        store(out, outOff, invFinalWord(s0, s3, s2, s1) ^ rk[k]);
+        store(out, outOff + 4, invFinalWord(s1, s0, s3, s2) ^ rk[k + 1]);
+        store(out, outOff + 8, invFinalWord(s2, s1, s0, s3) ^ rk[k + 2]);
+        store(out, outOff + 12, invFinalWord(s3, s2, s1, s0) ^ rk[k + 3]);
+    }
+
+    private static void encrypt(ByteBuffer in, int inPos, ByteBuffer out, int outPos, int[] rk, int nr) {
+        int s0 = in.getInt(inPos) ^ rk[0];
+        int s1 = in.getInt(inPos + 4) ^ rk[1];
+        int s2 = in.getInt(inPos + 8) ^ rk[2];
+        int s3 = in.getInt(inPos + 12) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int t0 = TE0[s0 >>> 24] ^ TE1[(s1 >>> 16) & 0xFF] ^ TE2[(s2 >>> 8) & 0xFF] ^ TE3[s3 & 0xFF] ^ rk[k];
+            int t1 = TE0[s1 >>> 24] ^ TE1[(s2 >>> 16) & 0xFF] ^ TE2[(s3 >>> 8) & 0xFF] ^ TE3[s0 & 0xFF] ^ rk[k + 1];
+            int t2 = TE0[s2 >>> 24] ^ TE1[(s3 >>> 16) & 0xFF] ^ TE2[(s0 >>> 8) & 0xFF] ^ TE3[s1 & 0xFF] ^ rk[k + 2];
+            int t3 = TE0[s3 >>> 24] ^ TE1[(s0 >>> 16) & 0xFF] ^ TE2[(s1 >>> 8) & 0xFF] ^ TE3[s2 & 0xFF] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+
+        out.putInt(outPos, finalWord(s0, s1, s2, s3) ^ rk[k]);
+        out.putInt(outPos + 4, finalWord(s1, s2, s3, s0) ^ rk[k + 1]);
+        out.putInt(outPos + 8, finalWord(s2, s3, s0, s1) ^ rk[k + 2]);
+        out.putInt(outPos + 12, finalWord(s3, s0, s1, s2) ^ rk[k + 3]);
+    }
+
+    private static void decrypt(ByteBuffer in, int inPos, ByteBuffer out, int outPos, int[] rk, int nr) {
+        int s0 = in.getInt(inPos) ^ rk[0];
+        int s1 = in.getInt(inPos + 4) ^ rk[1];
+        int s2 = in.getInt(inPos + 8) ^ rk[2];
+        int s3 = in.getInt(inPos + 12) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xFF] ^ TD2[(s2 >>> 8) & 0xFF] ^ TD3[s1 & 0xFF] ^ rk[k];
+            int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xFF] ^ TD2[(s3 >>> 8) & 0xFF] ^ TD3[s2 & 0xFF] ^ rk[k + 1];
+            int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xFF] ^ TD2[(s0 >>> 8) & 0xFF] ^ TD3[s3 & 0xFF] ^ rk[k + 2];
+            int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xFF] ^ TD2[(s1 >>> 8) & 0xFF] ^ TD3[s0 & 0xFF] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+        }
+
+        out.putInt(outPos, invFinalWord(s0, s3, s2, s1) ^ rk[k]);
+        out.putInt(outPos + 4, invFinalWord(s1, s0, s3, s2) ^ rk[k + 1]);
+        out.putInt(outPos + 8, invFinalWord(s2, s1, s0, s3) ^ rk[k + 2]);
+        out.putInt(outPos + 12, invFinalWord(s3, s2, s1, s0) ^ rk[k + 3]);
+    }
+
+    private static void encrypt4(byte[] in, int inOff, byte[] out, int outOff, int[] rk, int nr) {
+        int a0 = load(in, inOff) ^ rk[0];
+        int a1 = load(in, inOff + 4) ^ rk[1];
+        int a2 = load(in, inOff + 8) ^ rk[2];
+        int a3 = load(in, inOff + 12) ^ rk[3];
+        int b0 = load(in, inOff + 16) ^ rk[0];
+        int b1 = load(in, inOff + 20) ^ rk[1];
+        int b2 = load(in, inOff + 24) ^ rk[2];
+        int b3 = load(in, inOff + 28) ^ rk[3];
+        int c0 = load(in, inOff + 32) ^ rk[0];
+        int c1 = load(in, inOff + 36) ^ rk[1];
+        int c2 = load(in, inOff + 40) ^ rk[2];
+        int c3 = load(in, inOff + 44) ^ rk[3];
+        int d0 = load(in, inOff + 48) ^ rk[0];
+        int d1 = load(in, inOff + 52) ^ rk[1];
+        int d2 = load(in, inOff + 56) ^ rk[2];
+        int d3 = load(in, inOff + 60) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int k0 = rk[k], k1 = rk[k + 1], k2 = rk[k + 2], k3 = rk[k + 3];
+            int ta0 = TE0[a0 >>> 24] ^ TE1[(a1 >>> 16) & 0xFF] ^ TE2[(a2 >>> 8) & 0xFF] ^ TE3[a3 & 0xFF] ^ k0;
+            int ta1 = TE0[a1 >>> 24] ^ TE1[(a2 >>> 16) & 0xFF] ^ TE2[(a3 >>> 8) & 0xFF] ^ TE3[a0 & 0xFF] ^ k1;
+            int ta2 = TE0[a2 >>> 24] ^ TE1[(a3 >>> 16) & 0xFF] ^ TE2[(a0 >>> 8) & 0xFF] ^ TE3[a1 & 0xFF] ^ k2;
+            int ta3 = TE0[a3 >>> 24] ^ TE1[(a0 >>> 16) & 0xFF] ^ TE2[(a1 >>> 8) & 0xFF] ^ TE3[a2 & 0xFF] ^ k3;
+            int tb0 = TE0[b0 >>> 24] ^ TE1[(b1 >>> 16) & 0xFF] ^ TE2[(b2 >>> 8) & 0xFF] ^ TE3[b3 & 0xFF] ^ k0;
+            int tb1 = TE0[b1 >>> 24] ^ TE1[(b2 >>> 16) & 0xFF] ^ TE2[(b3 >>> 8) & 0xFF] ^ TE3[b0 & 0xFF] ^ k1;
+            int tb2 = TE0[b2 >>> 24] ^ TE1[(b3 >>> 16) & 0xFF] ^ TE2[(b0 >>> 8) & 0xFF] ^ TE3[b1 & 0xFF] ^ k2;
+            int tb3 = TE0[b3 >>> 24] ^ TE1[(b0 >>> 16) & 0xFF] ^ TE2[(b1 >>> 8) & 0xFF] ^ TE3[b2 & 0xFF] ^ k3;
+            int tc0 = TE0[c0 >>> 24] ^ TE1[(c1 >>> 16) & 0xFF] ^ TE2[(c2 >>> 8) & 0xFF] ^ TE3[c3 & 0xFF] ^ k0;
+            int tc1 = TE0[c1 >>> 24] ^ TE1[(c2 >>> 16) & 0xFF] ^ TE2[(c3 >>> 8) & 0xFF] ^ TE3[c0 & 0xFF] ^ k1;
+            int tc2 = TE0[c2 >>> 24] ^ TE1[(c3 >>> 16) & 0xFF] ^ TE2[(c0 >>> 8) & 0xFF] ^ TE3[c1 & 0xFF] ^ k2;
+            int tc3 = TE0[c3 >>> 24] ^ TE1[(c0 >>> 16) & 0xFF] ^ TE2[(c1 >>> 8) & 0xFF] ^ TE3[c2 & 0xFF] ^ k3;
+            int td0 = TE0[d0 >>> 24] ^ TE1[(d1 >>> 16) & 0xFF] ^ TE2[(d2 >>> 8) & 0xFF] ^ TE3[d3 & 0xFF] ^ k0;
+            int td1 = TE0[d1 >>> 24] ^ TE1[(d2 >>> 16) & 0xFF] ^ TE2[(d3 >>> 8) & 0xFF] ^ TE3[d0 & 0xFF] ^ k1;
+            int td2 = TE0[d2 >>> 24] ^ TE1[(d3 >>> 16) & 0xFF] ^ TE2[(d0 >>> 8) & 0xFF] ^ TE3[d1 & 0xFF] ^ k2;
+            int td3 = TE0[d3 >>> 24] ^ TE1[(d0 >>> 16) & 0xFF] ^ TE2[(d1 >>> 8) & 0xFF] ^ TE3[d2 & 0xFF] ^ k3;
+            a0 = ta0; a1 = ta1; a2 = ta2; a3 = ta3;
+            b0 = tb0; b1 = tb1; b2 = tb2; b3 = tb3;
+            c0 = tc0; c1 = tc1; c2 = tc2; c3 = tc3;
+            d0 = td0; d1 = td1; d2 = td2; d3 = td3;
+        }
+
+        // last round: no MixColumns, plain S-box
+        store(out, outOff, finalWord(a0, a1, a2, a3) ^ rk[k]);
+        store(out, outOff + 4, finalWord(a1, a2, a3, a0) ^ rk[k + 1]);
+        store(out, outOff + 8, finalWord(a2, a3, a0, a1) ^ rk[k + 2]);
+        store(out, outOff + 12, finalWord(a3, a0, a1, a2) ^ rk[k + 3]);
+        store(out, outOff + 16, finalWord(b0, b1, b2, b3) ^ rk[k]);
+        store(out, outOff + 20, finalWord(b1, b2, b3, b0) ^ rk[k + 1]);
+        store(out, outOff + 24, finalWord(b2, b3, b0, b1) ^ rk[k + 2]);
+        store(out, outOff + 28, finalWord(b3, b0, b1, b2) ^ rk[k + 3]);
+        store(out, outOff + 32, finalWord(c0, c1, c2, c3) ^ rk[k]);
+        store(out, outOff + 36, finalWord(c1, c2, c3, c0) ^ rk[k + 1]);
+        store(out, outOff + 40, finalWord(c2, c3, c0, c1) ^ rk[k + 2]);
+        store(out, outOff + 44, finalWord(c3, c0, c1, c2) ^ rk[k + 3]);
+        store(out, outOff + 48, finalWord(d0, d1, d2, d3) ^ rk[k]);
+        store(out, outOff + 52, finalWord(d1, d2, d3, d0) ^ rk[k + 1]);
+        store(out, outOff + 56, finalWord(d2, d3, d0, d1) ^ rk[k + 2]);
+        store(out, outOff + 60, finalWord(d3, d0, d1, d2) ^ rk[k + 3]);
+    }
+
+    private static void decrypt4(byte[] in, int inOff, byte[] out, int outOff, int[] rk, int nr) {
+        int a0 = load(in, inOff) ^ rk[0];
+        int a1 = load(in, inOff + 4) ^ rk[1];
+        int a2 = load(in, inOff + 8) ^ rk[2];
+        int a3 = load(in, inOff + 12) ^ rk[3];
+        int b0 = load(in, inOff + 16) ^ rk[0];
+        int b1 = load(in, inOff + 20) ^ rk[1];
+        int b2 = load(in, inOff + 24) ^ rk[2];
+        int b3 = load(in, inOff + 28) ^ rk[3];
+        int c0 = load(in, inOff + 32) ^ rk[0];
+        int c1 = load(in, inOff + 36) ^ rk[1];
+        int c2 = load(in, inOff + 40) ^ rk[2];
+        int c3 = load(in, inOff + 44) ^ rk[3];
+        int d0 = load(in, inOff + 48) ^ rk[0];
+        int d1 = load(in, inOff + 52) ^ rk[1];
+        int d2 = load(in, inOff + 56) ^ rk[2];
+        int d3 = load(in, inOff + 60) ^ rk[3];
+
+        int k = 4;
+        for (int r = 1; r < nr; r++, k += 4) {
+            int k0 = rk[k], k1 = rk[k + 1], k2 = rk[k + 2], k3 = rk[k + 3];
+            int ta0 = TD0[a0 >>> 24] ^ TD1[(a3 >>> 16) & 0xFF] ^ TD2[(a2 >>> 8) & 0xFF] ^ TD3[a1 & 0xFF] ^ k0;
+            int ta1 = TD0[a1 >>> 24] ^ TD1[(a0 >>> 16) & 0xFF] ^ TD2[(a3 >>> 8) & 0xFF] ^ TD3[a2 & 0xFF] ^ k1;
+            int ta2 = TD0[a2 >>> 24] ^ TD1[(a1 >>> 16) & 0xFF] ^ TD2[(a0 >>> 8) & 0xFF] ^ TD3[a3 & 0xFF] ^ k2;
+            int ta3 = TD0[a3 >>> 24] ^ TD1[(a2 >>> 16) & 0xFF] ^ TD2[(a1 >>> 8) & 0xFF] ^ TD3[a0 & 0xFF] ^ k3;
+            int tb0 = TD0[b0 >>> 24] ^ TD1[(b3 >>> 16) & 0xFF] ^ TD2[(b2 >>> 8) & 0xFF] ^ TD3[b1 & 0xFF] ^ k0;
+            int tb1 = TD0[b1 >>> 24] ^ TD1[(b0 >>> 16) & 0xFF] ^ TD2[(b3 >>> 8) & 0xFF] ^ TD3[b2 & 0xFF] ^ k1;
+            int tb2 = TD0[b2 >>> 24] ^ TD1[(b1 >>> 16) & 0xFF] ^ TD2[(b0 >>> 8) & 0xFF] ^ TD3[b3 & 0xFF] ^ k2;
+            int tb3 = TD0[b3 >>> 24] ^ TD1[(b2 >>> 16) & 0xFF] ^ TD2[(b1 >>> 8) & 0xFF] ^ TD3[b0 & 0xFF] ^ k3;
+            int tc0 = TD0[c0 >>> 24] ^ TD1[(c3 >>> 16) & 0xFF] ^ TD2[(c2 >>> 8) & 0xFF] ^ TD3[c1 & 0xFF] ^ k0;
+            int tc1 = TD0[c1 >>> 24] ^ TD1[(c0 >>> 16) & 0xFF] ^ TD2[(c3 >>> 8) & 0xFF] ^ TD3[c2 & 0xFF] ^ k1;
+            int tc2 = TD0[c2 >>> 24] ^ TD1[(c1 >>> 16) & 0xFF] ^ TD2[(c0 >>> 8) & 0xFF] ^ TD3[c3 & 0xFF] ^ k2;
+            int tc3 = TD0[c3 >>> 24] ^ TD1[(c2 >>> 16) & 0xFF] ^ TD2[(c1 >>> 8) & 0xFF] ^ TD3[c0 & 0xFF] ^ k3;
+            int td0 = TD0[d0 >>> 24] ^ TD1[(d3 >>> 16) & 0xFF] ^ TD2[(d2 >>> 8) & 0xFF] ^ TD3[d1 & 0xFF] ^ k0;
+            int td1 = TD0[d1 >>> 24] ^ TD1[(d0 >>> 16) & 0xFF] ^ TD2[(d3 >>> 8) & 0xFF] ^ TD3[d2 & 0xFF] ^ k1;
+            int td2 = TD0[d2 >>> 24] ^ TD1[(d1 >>> 16) & 0xFF] ^ TD2[(d0 >>> 8) & 0xFF] ^ TD3[d3 & 0xFF] ^ k2;
+            int td3 = TD0[d3 >>> 24] ^ TD1[(d2 >>> 16) & 0xFF] ^ TD2[(d1 >>> 8) & 0xFF] ^ TD3[d0 & 0xFF] ^ k3;
+            a0 = ta0; a1 = ta1; a2 = ta2; a3 = ta3;
+            b0 = tb0; b1 = tb1; b2 = tb2; b3 = tb3;
+            c0 = tc0; c1 = tc1; c2 = tc2; c3 = tc3;
+            d0 = td0; d1 = td1; d2 = td2; d3 = td3;
+        }
+
+        // last round: no InvMixColumns, plain inverse S-box
+        store(out, outOff, invFinalWord(a0, a3, a2, a1) ^ rk[k]);
+        store(out, outOff + 4, invFinalWord(a1, a0, a3, a2) ^ rk[k + 1]);
+        store(out, outOff + 8, invFinalWord(a2, a1, a0, a3) ^ rk[k + 2]);
+        store(out, outOff + 12, invFinalWord(a3, a2, a1, a0) ^ rk[k + 3]);
+        store(out, outOff + 16, invFinalWord(b0, b3, b2, b1) ^ rk[k]);
+        store(out, outOff + 20, invFinalWord(b1, b0, b3, b2) ^ rk[k + 1]);
+        store(out, outOff + 24, invFinalWord(b2, b1, b0, b3) ^ rk[k + 2]);
+        store(out, outOff + 28, invFinalWord(b3, b2, b1, b0) ^ rk[k + 3]);
+        store(out, outOff + 32, invFinalWord(c0, c3, c2, c1) ^ rk[k]);
+        store(out, outOff + 36, invFinalWord(c1, c0, c3, c2) ^ rk[k + 1]);
+        store(out, outOff + 40, invFinalWord(c2, c1, c0, c3) ^ rk[k + 2]);
+        store(out, outOff + 44, invFinalWord(c3, c2, c1, c0) ^ rk[k + 3]);
+        store(out, outOff + 48, invFinalWord(d0, d3, d2, d1) ^ rk[k]);
+        store(out, outOff + 52, invFinalWord(d1, d0, d3, d2) ^ rk[k + 1]);
+        store(out, outOff + 56, invFinalWord(d2, d1, d0, d3) ^ rk[k + 2]);
+        store(out, outOff + 60, invFinalWord(d3, d2, d1, d0) ^ rk[k + 3]);
+    }
+
+    private static int finalWord(int a, int b, int c, int d) {
+        return ((S[a >>> 24] & 0xFF) << 24)
+                | ((S[(b >>> 16) & 0xFF] & 0xFF) << 16)
+                | ((S[(c >>> 8) & 0xFF] & 0xFF) << 8)
+                | (S[d & 0xFF] & 0xFF);
+    }
+
+    private static int invFinalWord(int a, int b, int c, int d) {
+        return ((Si[a >>> 24] & 0xFF) << 24)
+                | ((Si[(b >>> 16) & 0xFF] & 0xFF) << 16)
+                | ((Si[(c >>> 8) & 0xFF] & 0xFF) << 8)
+                | (Si[d & 0xFF] & 0xFF);
+    }
+
+    static int load(byte[] s, int off) {
+        return (int) INT_BE.get(s, off);
+    }
+
+    static void store(byte[] s, int off, int v) {
+        INT_BE.set(s, off, v);
+    }
+}
@@ -153,6 +153,20 @@ public final class Tables {
         static final byte[] MUL_13 = new byte[256];
         static final byte[] MUL_14 = new byte[256];
 
+        // Encryption T-tables: TE0[x] packs the MixColumns column (2, 1, 1, 3) * S[x]
+        // big-endian; TE1..TE3 are TE0 rotated right by 8/16/24 bits.
+        static final int[] TE0 = new int[256];
+        static final int[] TE1 = new int[256];
+        static final int[] TE2 = new int[256];
+        static final int[] TE3 = new int[256];
+
+        // Decryption T-tables: TD0[x] packs the InvMixColumns column (14, 9, 13, 11) * Si[x]
+        // big-endian; TD1..TD3 are TD0 rotated right by 8/16/24 bits.
+        static final int[] TD0 = new int[256];
+        static final int[] TD1 = new int[256];
+        static final int[] TD2 = new int[256];
+        static final int[] TD3 = new int[256];
+
         static {
                 for (int i = 0; i < 256; i++) {
                         int x = i;
@@ -160,6 +174,21 @@ public final class Tables {
                         MUL_11[i] = (byte) gfMul(x, 0x0B);
                         MUL_13[i] = (byte) gfMul(x, 0x0D);
                         MUL_14[i] = (byte) gfMul(x, 0x0E);
+
+                        int s = S[i] & 0xFF;
+                        int te = (gfMul(s, 0x02) << 24) | (s << 16) | (s << 8) | gfMul(s, 0x03);
+                        TE0[i] = te;
+                        TE1[i] = Integer.rotateRight(te, 8);
+                        TE2[i] = Integer.rotateRight(te, 16);
+                        TE3[i] = Integer.rotateRight(te, 24);
+
+                        int si = Si[i] & 0xFF;
+                        int td = (gfMul(si, 0x0E) << 24) | (gfMul(si, 0x09) << 16)
+                                        | (gfMul(si, 0x0D) << 8) | gfMul(si, 0x0B);
+                        TD0[i] = td;
+                        TD1[i] = Integer.rotateRight(td, 8);
+                        TD2[i] = Integer.rotateRight(td, 16);
+                        TD3[i] = Integer.rotateRight(td, 24);
                 }
         }
 
@@ -0,0 +1,147 @@
+package aes.davidr.engine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Multi-block AES on jdk.incubator.vector. One ByteVector carries lanes/16
+ * blocks: ShiftRows and the MixColumns row rotations are lane shuffles,
+ * MixColumns is GF(2^8) xtime arithmetic, and SubBytes is a lane-wise lookup
+ * into the S-box split into vector-sized chunks.
+ *
+ * Only reached through {@link SimdAES}, which checks that the incubator module
+ * is present before this class is loaded.
+ */
+final class VectorAES {
+    private static final int BLOCK_LENGTH = 16;
+
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() >= BLOCK_LENGTH
+            ? ByteVector.SPECIES_PREFERRED
+            : ByteVector.SPECIES_128;
+    static final int LANES = SPECIES.length();
+    private static final int CHUNK_BITS = Integer.numberOfTrailingZeros(LANES);
+
+    private static final VectorShuffle<Byte> SHIFT_ROWS = blockShuffle(1, 0);
+    private static final VectorShuffle<Byte> INV_SHIFT_ROWS = blockShuffle(-1, 0);
+    private static final VectorShuffle<Byte> ROT1 = blockShuffle(0, 1);
+    private static final VectorShuffle<Byte> ROT2 = blockShuffle(0, 2);
+    private static final VectorShuffle<Byte> ROT3 = blockShuffle(0, 3);
+
+    private static final ByteVector[] S_CHUNKS = chunks(Tables.S);
+    private static final ByteVector[] SI_CHUNKS = chunks(Tables.Si);
+
+    private VectorAES() {
+    }
+
+    /**
+     * Whole vectors from in[inOff] to out[outOff] (may be the same range); returns
+     * the number of bytes done (a multiple of LANES), the caller finishes the
+     * remaining blocks.
+     */
+    static int processBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff, KeySchedule ks) {
+        int whole = len - (len % LANES);
+        if (whole == 0)
+            return 0;
+
+        ByteVector[] rk = roundKeys(ks);
+        int nr = ks.getNr();
+        for (int p = 0; p < whole; p += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, in, inOff + p);
+            v = mode ? encrypt(v, rk, nr) : decrypt(v, rk, nr);
+            v.intoArray(out, outOff + p);
+        }
+        return whole;
+    }
+
+    private static ByteVector encrypt(ByteVector v, ByteVector[] rk, int nr) {
+        v = v.lanewise(VectorOperators.XOR, rk[0]);
+        for (int r = 1; r < nr; r++) {
+            v = lookup(v, S_CHUNKS).rearrange(SHIFT_ROWS);
+            v = mixColumns(v).lanewise(VectorOperators.XOR, rk[r]);
+        }
+        v = lookup(v, S_CHUNKS).rearrange(SHIFT_ROWS);
+        return v.lanewise(VectorOperators.XOR, rk[nr]);
+    }
+
+    private static ByteVector decrypt(ByteVector v, ByteVector[] rk, int nr) {
+        v = v.lanewise(VectorOperators.XOR, rk[nr]);
+        for (int r = nr - 1; r >= 1; r--) {
+            v = lookup(v.rearrange(INV_SHIFT_ROWS), SI_CHUNKS).lanewise(VectorOperators.XOR, rk[r]);
+            v = invMixColumns(v);
+        }
+        v = lookup(v.rearrange(INV_SHIFT_ROWS), SI_CHUNKS);
+        return v.lanewise(VectorOperators.XOR, rk[0]);
+    }
+
+    /** 2a ^ 3b ^ c ^ d = 2(a ^ b) ^ b ^ c ^ d with b, c, d the column rotated by 1, 2, 3 rows. */
+    private static ByteVector mixColumns(ByteVector a) {
+        ByteVector b = a.rearrange(ROT1);
+        ByteVector c = a.rearrange(ROT2);
+        ByteVector d = a.rearrange(ROT3);
+        return xtime(a.lanewise(VectorOperators.XOR, b))
+                .lanewise(VectorOperators.XOR, b)
+                .lanewise(VectorOperators.XOR, c)
+                .lanewise(VectorOperators.XOR, d);
+    }
+
+    /** circ(0e 0b 0d 09) = circ(02 03 01 01) * circ(05 00 04 00). */
+    private static ByteVector invMixColumns(ByteVector a) {
+        ByteVector t = xtime(xtime(a.lanewise(VectorOperators.XOR, a.rearrange(ROT2))));
+        return mixColumns(a.lanewise(VectorOperators.XOR, t));
+    }
+
+    private static ByteVector xtime(ByteVector v) {
+        ByteVector carry = v.lanewise(VectorOperators.ASHR, 7).lanewise(VectorOperators.AND, (byte) 0x1B);
+        return v.lanewise(VectorOperators.LSHL, 1).lanewise(VectorOperators.XOR, carry);
+    }
+
+    /** table[v] per lane: shuffle within each LANES-sized chunk, blend on the chunk number. */
+    private static ByteVector lookup(ByteVector v, ByteVector[] table) {
+        VectorShuffle<Byte> idx = v.lanewise(VectorOperators.AND, (byte) (LANES - 1)).toShuffle();
+        ByteVector hi = v.lanewise(VectorOperators.LSHR, CHUNK_BITS);
+        ByteVector r = table[0].rearrange(idx);
+        for (int k = 1; k < table.length; k++) {
+            VectorMask<Byte> m = hi.eq((byte) k);
+            r = r.blend(table[k].rearrange(idx), m);
+        }
+        return r;
+    }
+
+    private static ByteVector[] roundKeys(KeySchedule ks) {
+        int nr = ks.getNr();
+        ByteVector[] rk = new ByteVector[nr + 1];
+        byte[] tiled = new byte[LANES];
+        for (int r = 0; r <= nr; r++) {
+            byte[] k = ks.roundKey(r);
+            for (int p = 0; p < LANES; p += BLOCK_LENGTH)
+                System.arraycopy(k, 0, tiled, p, BLOCK_LENGTH);
+            rk[r] = ByteVector.fromArray(SPECIES, tiled, 0);
+        }
+        return rk;
+    }
+
+    private static ByteVector[] chunks(byte[] table) {
+        ByteVector[] out = new ByteVector[256 / LANES];
+        for (int k = 0; k < out.length; k++)
+            out[k] = ByteVector.fromArray(SPECIES, table, k * LANES);
+        return out;
+    }
+
+    /**
+     * Same permutation in every block: lane (col, row) reads (col + colStep*row,
+     * row + rowStep), both mod 4. ShiftRows is colStep 1, a row rotation is rowStep k.
+     */
+    private static VectorShuffle<Byte> blockShuffle(int colStep, int rowStep) {
+        int[] src = new int[LANES];
+        for (int j = 0; j < LANES; j++) {
+            int base = j & ~(BLOCK_LENGTH - 1);
+            int col = (j >>> 2) & 3;
+            int row = j & 3;
+            src[j] = base + (((col + colStep * row) & 3) << 2) + ((row + rowStep) & 3);
+        }
+        return VectorShuffle.fromArray(SPECIES, src, 0);
+    }
+}
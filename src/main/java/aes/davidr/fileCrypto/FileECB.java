@@ -6,17 +6,26 @@ import aes.davidr.modes.ECB;
 import aes.davidr.modes.Padding;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 public final class FileECB {
     public static final boolean ENCRYPT_MODE = true;
     public static final boolean DECRYPT_MODE = false;
     private static final int BLOCK = 16;
     private static final int BUF   = 64 * 1024; // will align down to multiple of 16
+    private static final long MAPPED_MIN = 4L << 20; // files from this size take the mapped path
 
     private FileECB() {}
 
     public static void processFile(boolean encrypt, File inFile, File outFile, KeySchedule ks) throws IOException {
         if (inFile == null || outFile == null || ks == null) throw new IllegalArgumentException("null");
+        // mapping needs regular files: pipes, devices and the like take the stream path
+        if (inFile.isFile() && inFile.length() >= MAPPED_MIN && (!outFile.exists() || outFile.isFile())) {
+            processFileMapped(encrypt, inFile, outFile, ks);
+            return;
+        }
         int bufSize = BUF & ~(BLOCK - 1);
 
         try (InputStream  is = new BufferedInputStream(new FileInputStream(inFile), bufSize);
@@ -26,6 +35,62 @@ public final class FileECB {
         }
     }
 
+    /**
+     * Same output as the stream path, byte for byte, but both files are
+     * memory-mapped in windows and the block-aligned body is processed in
+     * parallel (ECB.ecbProcessMapped). Only the final PKCS#7 block is handled on
+     * its own: on decrypt it is decrypted first, which fixes the output size.
+     */
+    public static void processFileMapped(boolean encrypt, File inFile, File outFile, KeySchedule ks)
+            throws IOException {
+        if (inFile == null || outFile == null || ks == null) throw new IllegalArgumentException("null");
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            processMapped(encrypt, in, 0, in.size(), out, 0, ks);
+        }
+    }
+
+    /**
+     * Mapped, parallel PKCS#7 ECB of in[inPos, inPos + len) written at outPos;
+     * returns the number of bytes written. The building block of
+     * processFileMapped, also used for file formats with a header.
+     */
+    static long processMapped(boolean encrypt, FileChannel in, long inPos, long len, FileChannel out, long outPos,
+            KeySchedule ks) throws IOException {
+        byte[] last = new byte[BLOCK];
+        if (encrypt) {
+            long full = len & ~(long) (BLOCK - 1);
+            int rem = (int) (len - full);
+            readFully(in, last, rem, inPos + full);
+            ECB.ecbProcessMapped(AES.ENCRYPT_MODE, in, inPos, full, out, outPos, ks);
+            ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, last, ks, 0, Padding.padPKCS7(last, 0, rem));
+            writeFully(out, last, BLOCK, outPos + full);
+            return full + BLOCK;
+        }
+        if ((len & (BLOCK - 1)) != 0) throw new IOException("Ciphertext not block aligned");
+        if (len == 0) throw new IOException("Empty ciphertext");
+        long body = len - BLOCK;
+        readFully(in, last, BLOCK, inPos + body);
+        ECB.ecbProcessBlocks(AES.DECRYPT_MODE, last, ks, 0, BLOCK);
+        int tail = Padding.unpadPKCS7(last, 0, BLOCK);
+        ECB.ecbProcessMapped(AES.DECRYPT_MODE, in, inPos, body, out, outPos, ks);
+        writeFully(out, last, tail, outPos + body);
+        return body + tail;
+    }
+
+    static void readFully(FileChannel ch, byte[] b, int len, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) throw new EOFException();
+        }
+    }
+
+    static void writeFully(FileChannel ch, byte[] b, int len, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+        while (buf.hasRemaining()) ch.write(buf, pos + buf.position());
+    }
+
     public static void encryptIStoOS(InputStream in, OutputStream out, KeySchedule ks) throws IOException {
         int bufSize = BUF & ~(BLOCK - 1);
         encryptIStoOS(in, out, ks,bufSize);
@@ -55,13 +120,10 @@ public final class FileECB {
             carryLen = rem;
         }
 
-        // Final PKCS#7 pad + encrypt
-        byte[] last = new byte[carryLen];
-        if (carryLen != 0) System.arraycopy(carry, 0, last, 0, carryLen);
-        byte[] padded = Padding.padPKCS7(last);
-
-        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, padded, ks);
-        out.write(padded);
+        // Final PKCS#7 pad + encrypt, in the carry block
+        int padded = Padding.padPKCS7(carry, 0, carryLen);
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, carry, ks, 0, padded);
+        out.write(carry, 0, padded);
     }
 
     public static void decryptIStoOS(InputStream in, OutputStream out, KeySchedule ks) throws IOException {
@@ -121,7 +183,6 @@ public final class FileECB {
         if (carryLen != 0) throw new IOException("Ciphertext not block aligned");
         if (!hasLast) throw new IOException("Empty ciphertext");
 
-        byte[] unpadded = Padding.unpadPKCS7(lastPlain);
-        out.write(unpadded);
+        out.write(lastPlain, 0, Padding.unpadPKCS7(lastPlain, 0, BLOCK));
     }
 }
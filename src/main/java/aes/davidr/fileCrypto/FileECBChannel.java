@@ -0,0 +1,167 @@
+package aes.davidr.fileCrypto;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.ECB;
+import aes.davidr.modes.Padding;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only, random-access plaintext view of a FileECB file. ECB blocks decrypt
+ * independently, so a read at any position decrypts only the pages (PAGE
+ * bytes, 256 blocks) that cover it; the last few pages are kept in an LRU cache
+ * for repeat and nearby reads. size() is the plaintext length: the padding
+ * block is decrypted and checked when the channel is opened.
+ *
+ * Safe for use by several threads; reads and position changes are serialized.
+ */
+public final class FileECBChannel implements SeekableByteChannel {
+    private static final int BLOCK = 16;
+    static final int PAGE = 4096;
+    private static final int DEFAULT_CACHE_PAGES = 16;
+
+    private final FileChannel ch;
+    private final KeySchedule ks;
+    private final long size; // plaintext bytes
+    private final long cipherLen;
+    private final Map<Long, byte[]> cache;
+    private long position;
+
+    private FileECBChannel(FileChannel ch, KeySchedule ks, int cachePages) throws IOException {
+        this.ch = ch;
+        this.ks = ks;
+        this.cipherLen = ch.size();
+        if ((cipherLen & (BLOCK - 1)) != 0) throw new IOException("Ciphertext not block aligned");
+        if (cipherLen == 0) throw new IOException("Empty ciphertext");
+
+        byte[] last = new byte[BLOCK];
+        FileECB.readFully(ch, last, BLOCK, cipherLen - BLOCK);
+        ECB.ecbProcessBlocks(AES.DECRYPT_MODE, last, ks, 0, BLOCK);
+        this.size = cipherLen - BLOCK + Padding.unpadPKCS7(last, 0, BLOCK);
+
+        this.cache = new LinkedHashMap<>(cachePages, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cachePages;
+            }
+        };
+    }
+
+    public static FileECBChannel open(File encFile, KeySchedule ks) throws IOException {
+        return open(encFile, ks, DEFAULT_CACHE_PAGES);
+    }
+
+    /** cachePages: how many decrypted PAGE-byte pages to keep (0 disables the cache). */
+    public static FileECBChannel open(File encFile, KeySchedule ks, int cachePages) throws IOException {
+        if (encFile == null || ks == null) throw new IllegalArgumentException("null");
+        if (cachePages < 0) throw new IllegalArgumentException("cachePages < 0");
+        FileChannel ch = FileChannel.open(encFile.toPath(), StandardOpenOption.READ);
+        try {
+            return new FileECBChannel(ch, ks, cachePages);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /** Plaintext of encFile from byte offset start to the end, as a stream; close it to close the file. */
+    public static InputStream newInputStream(File encFile, KeySchedule ks, long start) throws IOException {
+        if (start < 0) throw new IllegalArgumentException("position < 0");
+        FileECBChannel c = open(encFile, ks);
+        try {
+            c.position(start);
+        } catch (IOException | RuntimeException e) {
+            c.close();
+            throw e;
+        }
+        return Channels.newInputStream(c);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= size) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / PAGE;
+            byte[] page = page(index);
+            int off = (int) (position - index * PAGE);
+            int n = (int) Math.min(Math.min(dst.remaining(), page.length - off), size - position);
+            dst.put(page, off, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    /** Decrypted page index, from the cache or the file. */
+    private byte[] page(long index) throws IOException {
+        byte[] page = cache.get(index);
+        if (page == null) {
+            long start = index * PAGE;
+            int len = (int) Math.min(PAGE, cipherLen - start);
+            page = new byte[len];
+            FileECB.readFully(ch, page, len, start);
+            ECB.ecbProcessBlocks(AES.DECRYPT_MODE, page, ks, 0, len);
+            cache.put(index, page);
+        }
+        return page;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized FileECBChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("position < 0");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ch.close();
+        cache.clear();
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!ch.isOpen()) throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,106 @@
+package aes.davidr.fileCrypto;
+
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.GCM;
+
+import java.io.*;
+import java.security.SecureRandom;
+
+/**
+ * Authenticated file format on AES-GCM, one pass over the data each way:
+ *
+ *   MAGIC(8) | VERSION(1) | NONCE(12) | ciphertext | TAG(16)
+ *
+ * MAGIC, VERSION and NONCE are the GCM AAD, so the header is authenticated
+ * along with the data. Decryption streams plaintext into the output file as
+ * it goes; if the tag does not verify the output file is deleted and a
+ * SecurityException is thrown. Files over GCM.MAX_DATA_LENGTH (about 64 GB)
+ * are rejected before the output is opened; use FileSegmentedGCM for those.
+ */
+public final class FileGCM {
+    public static final boolean ENCRYPT_MODE = true;
+    public static final boolean DECRYPT_MODE = false;
+
+    private static final byte[] MAGIC = new byte[]{'D','R','A','E','S','G','C','M'}; // 8 bytes
+    private static final byte VERSION = 1;
+    private static final int NONCE_LEN = 12;
+    static final int HEADER_LEN = 8 + 1 + NONCE_LEN;
+    private static final int BUF = 64 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private FileGCM() {}
+
+    public static void processFile(boolean mode, File in, File out, byte[] key) throws IOException {
+        if (in == null || out == null || key == null) throw new IllegalArgumentException("null");
+        KeySchedule ks = new KeySchedule(key);
+        if (mode) encrypt(in, out, ks);
+        else decrypt(in, out, ks);
+    }
+
+    private static void encrypt(File plainIn, File encOut, KeySchedule ks) throws IOException {
+        if (plainIn.length() > GCM.MAX_DATA_LENGTH) throw new IOException("File too large for one GCM message");
+        byte[] header = new byte[HEADER_LEN];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[8] = VERSION;
+        byte[] nonce = new byte[NONCE_LEN];
+        RANDOM.nextBytes(nonce);
+        System.arraycopy(nonce, 0, header, 9, NONCE_LEN);
+
+        GCM gcm = new GCM(ENCRYPT_MODE, ks, nonce);
+        gcm.updateAAD(header, 0, header.length);
+
+        try (InputStream is = new FileInputStream(plainIn);
+             OutputStream os = new FileOutputStream(encOut)) {
+            os.write(header);
+            byte[] buf = new byte[BUF + GCM.TAG_LENGTH];
+            int n;
+            while ((n = is.read(buf, 0, BUF)) != -1) {
+                os.write(buf, 0, gcm.update(buf, 0, n, buf, 0));
+            }
+            os.write(buf, 0, gcm.doFinal(buf, 0, 0, buf, 0));
+        }
+    }
+
+    private static void decrypt(File encIn, File plainOut, KeySchedule ks) throws IOException {
+        if (encIn.length() < HEADER_LEN + GCM.TAG_LENGTH) throw new IOException("Invalid file: too small");
+        if (encIn.length() - HEADER_LEN - GCM.TAG_LENGTH > GCM.MAX_DATA_LENGTH)
+            throw new IOException("Invalid file: too large for one GCM message");
+
+        boolean ok = false;
+        try (InputStream is = new FileInputStream(encIn);
+             OutputStream os = new FileOutputStream(plainOut)) {
+            byte[] header = new byte[HEADER_LEN];
+            readFully(is, header);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) throw new IOException("Invalid file: bad MAGIC");
+            }
+            if (header[8] != VERSION) throw new IOException("Unsupported VERSION: " + header[8]);
+            byte[] nonce = new byte[NONCE_LEN];
+            System.arraycopy(header, 9, nonce, 0, NONCE_LEN);
+
+            GCM gcm = new GCM(DECRYPT_MODE, ks, nonce);
+            gcm.updateAAD(header, 0, header.length);
+
+            byte[] buf = new byte[BUF];
+            byte[] plain = new byte[BUF + GCM.TAG_LENGTH];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                os.write(plain, 0, gcm.update(buf, 0, n, plain, 0));
+            }
+            os.write(plain, 0, gcm.doFinal(buf, 0, 0, plain, 0));
+            ok = true;
+        } finally {
+            if (!ok) plainOut.delete(); // never leave unauthenticated plaintext behind
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] b) throws IOException {
+        int got = 0;
+        while (got < b.length) {
+            int n = is.read(b, got, b.length - got);
+            if (n == -1) throw new EOFException("Unexpected EOF");
+            got += n;
+        }
+    }
+}
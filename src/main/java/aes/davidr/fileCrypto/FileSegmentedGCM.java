@@ -0,0 +1,203 @@
+package aes.davidr.fileCrypto;
+
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.GCM;
+import aes.davidr.modes.Parallel;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Segmented AES-GCM file format: the plaintext is cut into fixed-size
+ * segments, each encrypted and authenticated on its own, so segments are
+ * processed on all cores (see {@link Parallel}) with one segment of memory per
+ * task:
+ *
+ *   MAGIC(8) | VERSION(1) | SEGMENT_SIZE(4) | SALT(32) | PREFIX(7) | seg 0 | seg 1 | ... | seg n-1
+ *
+ * Every segment is ciphertext || TAG(16); all but the last hold SEGMENT_SIZE
+ * plaintext bytes. Segment i uses the nonce PREFIX || i (4 bytes, big-endian)
+ * || final flag (1 on the last segment, else 0), and the header is its AAD, so
+ * moving, dropping or swapping segments, cutting the file at a segment
+ * boundary or editing the header all fail verification. On failure the output
+ * file is deleted and a SecurityException names the segment.
+ *
+ * SALT and PREFIX are random per file. Segments are not encrypted under the
+ * caller's key but under a per-file key, HKDF-SHA256(key, SALT, MAGIC ||
+ * VERSION || SEGMENT_SIZE), the same size as the key (as in Tink's
+ * AES-GCM-HKDF streaming AEAD). Nonces then only have to be unique within one
+ * file, so a long-lived key does not run into the 56-bit PREFIX birthday bound.
+ * Segment buffers are never larger than the file, whatever the header claims.
+ */
+public final class FileSegmentedGCM {
+    public static final boolean ENCRYPT_MODE = true;
+    public static final boolean DECRYPT_MODE = false;
+
+    /** Segment size processFile(mode, in, out, key) encrypts with: 64 KB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    private static final byte[] MAGIC = new byte[]{'D','R','A','E','S','S','E','G'}; // 8 bytes
+    private static final byte VERSION = 1;
+    private static final int SALT_LEN = 32;
+    private static final int PREFIX_LEN = 7;
+    private static final int NONCE_LEN = 12;
+    private static final int SALT_OFF = 8 + 1 + 4; // bytes before it are the HKDF info
+    private static final int PREFIX_OFF = SALT_OFF + SALT_LEN;
+    static final int HEADER_LEN = PREFIX_OFF + PREFIX_LEN;
+    private static final long MAX_SEGMENTS = 1L << 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private FileSegmentedGCM() {}
+
+    public static void processFile(boolean mode, File in, File out, byte[] key) throws IOException {
+        processFile(mode, in, out, key, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** segmentSize (16 bytes to 1 GB) is used when encrypting; decryption reads it from the header. */
+    public static void processFile(boolean mode, File in, File out, byte[] key, int segmentSize) throws IOException {
+        if (in == null || out == null || key == null) throw new IllegalArgumentException("null");
+        if (segmentSize < 16 || segmentSize > 1 << 30)
+            throw new IllegalArgumentException("segmentSize must be 16 bytes to 1 GB");
+        if (key.length != 16 && key.length != 24 && key.length != 32)
+            throw new IllegalArgumentException("key must be 16/24/32 bytes");
+        if (mode) encrypt(in, out, key, segmentSize);
+        else decrypt(in, out, key);
+    }
+
+    private static void encrypt(File plainIn, File encOut, byte[] key, int segmentSize) throws IOException {
+        byte[] header = new byte[HEADER_LEN];
+        ByteBuffer.wrap(header).put(MAGIC).put(VERSION).putInt(segmentSize);
+        byte[] random = new byte[SALT_LEN + PREFIX_LEN];
+        RANDOM.nextBytes(random);
+        System.arraycopy(random, 0, header, SALT_OFF, random.length);
+        KeySchedule ks = fileKey(key, header);
+
+        try (FileChannel in = FileChannel.open(plainIn.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(encOut.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long plainLen = in.size();
+            long segments = Math.max(1, (plainLen + segmentSize - 1) / segmentSize);
+            if (segments > MAX_SEGMENTS) throw new IOException("File too large for segmentSize " + segmentSize);
+            FileECB.writeFully(out, header, HEADER_LEN, 0);
+            int bufSize = (int) Math.min(segmentSize, plainLen) + GCM.TAG_LENGTH;
+            forSegments(segments, segmentSize, bufSize, (i, buf) -> {
+                long pos = i * segmentSize;
+                int len = (int) Math.min(segmentSize, plainLen - pos);
+                FileECB.readFully(in, buf, len, pos);
+                int n = segment(ENCRYPT_MODE, ks, header, i, i == segments - 1, buf, len);
+                FileECB.writeFully(out, buf, n, HEADER_LEN + i * (segmentSize + GCM.TAG_LENGTH));
+            });
+        } finally {
+            ks.destroy();
+        }
+    }
+
+    private static void decrypt(File encIn, File plainOut, byte[] key) throws IOException {
+        boolean ok = false;
+        KeySchedule ks = null;
+        try (FileChannel in = FileChannel.open(encIn.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(plainOut.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (in.size() < HEADER_LEN + GCM.TAG_LENGTH) throw new IOException("Invalid file: too small");
+            byte[] header = new byte[HEADER_LEN];
+            FileECB.readFully(in, header, HEADER_LEN, 0);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) throw new IOException("Invalid file: bad MAGIC");
+            }
+            if (header[8] != VERSION) throw new IOException("Unsupported VERSION: " + header[8]);
+            int segmentSize = ByteBuffer.wrap(header, 9, 4).getInt();
+            if (segmentSize < 16 || segmentSize > 1 << 30) throw new IOException("Invalid segment size in header");
+
+            long stride = segmentSize + GCM.TAG_LENGTH;
+            long body = in.size() - HEADER_LEN;
+            long segments = (body + stride - 1) / stride;
+            long lastLen = body - (segments - 1) * stride;
+            if (lastLen < GCM.TAG_LENGTH) throw new IOException("Invalid file: truncated segment");
+            if (segments > MAX_SEGMENTS) throw new IOException("Invalid file: too many segments");
+
+            KeySchedule fileKs = fileKey(key, header);
+            ks = fileKs;
+            // the header is not authenticated yet: size buffers by the file, not by its segment size
+            forSegments(segments, segmentSize, (int) Math.min(stride, body), (i, buf) -> {
+                int len = (int) (i == segments - 1 ? lastLen : stride);
+                FileECB.readFully(in, buf, len, HEADER_LEN + i * stride);
+                int n;
+                try {
+                    n = segment(DECRYPT_MODE, fileKs, header, i, i == segments - 1, buf, len);
+                } catch (SecurityException e) {
+                    throw new SecurityException("GCM segment " + i + " failed verification"
+                            + " (data modified, truncated or reordered, or wrong key)");
+                }
+                FileECB.writeFully(out, buf, n, i * segmentSize);
+            });
+            ok = true;
+        } finally {
+            if (ks != null) ks.destroy();
+            if (!ok) plainOut.delete(); // never leave unauthenticated plaintext behind
+        }
+    }
+
+    /** The file's own key: HKDF-SHA256 (RFC 5869) of key, salted with the header's SALT. */
+    private static KeySchedule fileKey(byte[] key, byte[] header) {
+        byte[] okm = null;
+        byte[] fileKey = null;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(header, SALT_OFF, SALT_LEN, "HmacSHA256"));
+            byte[] prk = mac.doFinal(key); // extract
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            Arrays.fill(prk, (byte) 0);
+            mac.update(header, 0, SALT_OFF); // expand: one block covers a 32-byte key
+            mac.update((byte) 1);
+            okm = mac.doFinal();
+            fileKey = Arrays.copyOf(okm, key.length);
+            return new KeySchedule(fileKey);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (okm != null) Arrays.fill(okm, (byte) 0);
+            if (fileKey != null) Arrays.fill(fileKey, (byte) 0);
+        }
+    }
+
+    /** Encrypts or decrypts one segment in place in buf, returns its output length. */
+    private static int segment(boolean mode, KeySchedule ks, byte[] header, long index, boolean last, byte[] buf,
+            int len) {
+        byte[] nonce = new byte[NONCE_LEN];
+        System.arraycopy(header, PREFIX_OFF, nonce, 0, PREFIX_LEN);
+        ByteBuffer.wrap(nonce, PREFIX_LEN, 4).putInt((int) index);
+        nonce[NONCE_LEN - 1] = (byte) (last ? 1 : 0);
+        GCM gcm = new GCM(mode, ks, nonce);
+        gcm.updateAAD(header, 0, HEADER_LEN);
+        return gcm.doFinal(buf, 0, len, buf, 0);
+    }
+
+    private interface SegmentTask {
+        void run(long index, byte[] buf) throws IOException;
+    }
+
+    /** Runs task over segments 0..count-1, split across the pool, one bufSize buffer per piece. */
+    private static void forSegments(long count, int segmentSize, int bufSize, SegmentTask task) throws IOException {
+        try {
+            Parallel.forRange(count * segmentSize, segmentSize, (from, to) -> {
+                byte[] buf = new byte[bufSize];
+                try {
+                    for (long i = from / segmentSize; i < to / segmentSize; i++) task.run(i, buf);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
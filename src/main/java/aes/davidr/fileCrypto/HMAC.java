@@ -1,12 +1,21 @@
 package aes.davidr.fileCrypto;
 
 import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.Parallel;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.util.Arrays;
 
 public class HMAC {
     public static final boolean ENCRYPT_MODE = true;
@@ -14,11 +23,37 @@ public class HMAC {
 
     private static final byte[] MAGIC   = new byte[]{'D','R','E','C','B','M','A','C'}; // 8 bytes
     private static final byte   VERSION = 1;
+    private static final byte   VERSION_TREE = 2; // per-chunk tags in a trailer, see processFile(..., chunkSize)
     private static final byte   MODE_ECB = 0;
     private static final int TAG_LEN = 32; // HMAC-SHA256 output length
     static final int FIELDS_LEN = 8 + 1 + 1 + 8;
     static final int HEADER_LEN = FIELDS_LEN + TAG_LEN;
     private static final int TAG_OFFSET = FIELDS_LEN;
+    static final int FIELDS_LEN_TREE = FIELDS_LEN + 4; // + chunk size
+    static final int HEADER_LEN_TREE = FIELDS_LEN_TREE + TAG_LEN;
+    private static final int MAP_WINDOW = 64 << 20; // bytes mapped at a time while hashing chunks
+
+    /** A sensible chunk size for processFile(..., chunkSize): 1 MB. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Thrown by decrypt and verifyFile on a VERSION 2 file whose trailer is
+     * authentic but one ciphertext chunk is not; chunkIndex() says which one
+     * (the first, if several are damaged).
+     */
+    public static final class ChunkMismatchException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+        private final long chunkIndex;
+
+        ChunkMismatchException(long chunkIndex) {
+            super("HMAC verification failed in chunk " + chunkIndex + " (file modified).");
+            this.chunkIndex = chunkIndex;
+        }
+
+        public long chunkIndex() {
+            return chunkIndex;
+        }
+    }
 
     public static void processFile(boolean mode, File in, File out, byte[] mainKey) throws Exception {
         if (mode) {
@@ -28,12 +63,57 @@ public class HMAC {
         }
     }
 
+    /**
+     * VERSION 2 container: the ciphertext is split into chunkSize-byte chunks
+     * (a multiple of 16), each with its own HMAC stored in a trailer, and the
+     * header tag is an HMAC over the fields and those chunk tags. Chunks are
+     * encrypted, hashed and verified on all cores, and a damaged chunk is
+     * reported by index. Decryption reads the version from the header, so
+     * chunkSize only matters when encrypting.
+     */
+    public static void processFile(boolean mode, File in, File out, byte[] mainKey, int chunkSize) throws Exception {
+        if (mode) {
+            encryptTree(in, out, mainKey, chunkSize);
+        } else {
+            decrypt(in, out, mainKey);
+        }
+    }
+
+    /**
+     * Checks the tags of an encrypted file without decrypting it. Throws
+     * SecurityException on a mismatch, ChunkMismatchException (VERSION 2) when a
+     * single chunk can be blamed.
+     */
+    public static void verifyFile(File encIn, byte[] mainKey) throws Exception {
+        if (encIn == null || mainKey == null) throw new IllegalArgumentException("null");
+        DerivedKeys dk = deriveKeys(mainKey);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(encIn), 64 * 1024)) {
+            Header h = readAndValidateHeader(is);
+            if (h.chunkSize != 0) {
+                try (FileChannel ch = FileChannel.open(encIn.toPath(), StandardOpenOption.READ)) {
+                    verifyTree(ch, h, dk.macKey);
+                }
+                return;
+            }
+            Mac mac = initHmac(dk.macKey);
+            mac.update(h.fields);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                mac.update(buf, 0, n);
+            }
+            if (!MessageDigest.isEqual(mac.doFinal(), h.tag)) {
+                throw new SecurityException("HMAC verification failed (file modified or wrong key).");
+            }
+        }
+    }
+
     private static void encrypt(File plainIn, File outEnc, byte[] mainKey) throws Exception {
         if (plainIn == null || outEnc == null || mainKey == null) throw new IllegalArgumentException("null");
         DerivedKeys dk = deriveKeys(mainKey);
 
         long plainLen = plainIn.length();
-        byte[] fields = buildFields(plainLen);
+        byte[] fields = buildFields(VERSION, plainLen, 0);
 
         try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outEnc), 64 * 1024)) {
             os.write(fields);
@@ -57,54 +137,204 @@ public class HMAC {
         writeTagIntoHeader(outEnc, tag);
     }
 
+    /**
+     * Decrypts into a temporary file next to plainOut that is renamed over it
+     * only once every tag matches; on failure plainOut is left as it was.
+     */
     private static void decrypt(File encIn, File plainOut, byte[] mainKey) throws Exception {
         if (encIn == null || plainOut == null || mainKey == null) throw new IllegalArgumentException("null");
         DerivedKeys dk = deriveKeys(mainKey);
 
-        Header h = readAndValidateHeader(encIn);
-        verifyHmacOrThrow(encIn, h, dk.macKey);
+        File dir = plainOut.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(plainOut.getName() + ".part", null, dir); // prefix needs 3+ chars
+        boolean done = false;
+        try {
+            try (InputStream is = new BufferedInputStream(new FileInputStream(encIn), 64 * 1024)) {
+                Header h = readAndValidateHeader(is);
+                if (h.chunkSize != 0) decryptTree(encIn, tmp, h, dk);
+                else decryptStream(is, tmp, h, dk);
+            }
+            moveIntoPlace(tmp, plainOut);
+            done = true;
+        } finally {
+            if (!done) tmp.delete();
+        }
+    }
 
-        try (InputStream is = new BufferedInputStream(new FileInputStream(encIn), 64 * 1024);
-             OutputStream os = new BufferedOutputStream(new FileOutputStream(plainOut), 64 * 1024)) {
+    /**
+     * VERSION 1, one pass: the ciphertext after the header is MACed and
+     * decrypted as it is read. A padding or length problem is reported only
+     * after the tag has been checked, so a modified file always fails as a MAC
+     * failure.
+     */
+    private static void decryptStream(InputStream is, File plainOut, Header h, DerivedKeys dk) throws Exception {
+        Mac mac = initHmac(dk.macKey);
+        mac.update(h.fields);
 
-            skipFully(is, HEADER_LEN);
-            FileECB.decryptIStoOS(is, os, dk.ks);
+        Exception failure = null;
+        CountingOutputStream os = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(plainOut), 64 * 1024));
+        try (os; InputStream macIn = new MacInputStream(is, mac)) {
+            try {
+                FileECB.decryptIStoOS(macIn, os, dk.ks);
+            } catch (IllegalArgumentException | IOException e) {
+                failure = e; // decided after the tag: the rest of the input still goes into the MAC
+                macIn.transferTo(OutputStream.nullOutputStream());
+            }
         }
-
-        if (plainOut.length() != h.plaintextLen) {
+        if (!MessageDigest.isEqual(mac.doFinal(), h.tag)) {
+            throw new SecurityException("HMAC verification failed (file modified or wrong key).");
+        }
+        if (failure != null) throw failure;
+        if (os.count != h.plaintextLen) {
             throw new IOException("Plaintext length mismatch (wrong key or internal error).");
         }
     }
 
-    private static byte[] buildFields(long plaintextLen) {
-        ByteBuffer bb = ByteBuffer.allocate(FIELDS_LEN);
+    private static void encryptTree(File plainIn, File outEnc, byte[] mainKey, int chunkSize) throws Exception {
+        if (plainIn == null || outEnc == null || mainKey == null) throw new IllegalArgumentException("null");
+        if (chunkSize < 16 || (chunkSize & 15) != 0 || chunkSize > 1 << 30)
+            throw new IllegalArgumentException("chunkSize must be a multiple of 16, 16 to 1 GB");
+        DerivedKeys dk = deriveKeys(mainKey);
+
+        try (FileChannel in = FileChannel.open(plainIn.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outEnc.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long plainLen = in.size();
+            byte[] fields = buildFields(VERSION_TREE, plainLen, chunkSize);
+            long ctLen = FileECB.processMapped(true, in, 0, plainLen, out, HEADER_LEN_TREE, dk.ks);
+            byte[] leaves = chunkTags(out, HEADER_LEN_TREE, ctLen, chunkSize, dk.macKey);
+            FileECB.writeFully(out, leaves, leaves.length, HEADER_LEN_TREE + ctLen);
+            FileECB.writeFully(out, fields, FIELDS_LEN_TREE, 0);
+            FileECB.writeFully(out, rootTag(dk.macKey, fields, leaves), TAG_LEN, FIELDS_LEN_TREE);
+        }
+    }
+
+    /** Verifies every tag (in parallel), then decrypts the mapped ciphertext into plainOut. */
+    private static void decryptTree(File encIn, File plainOut, Header h, DerivedKeys dk) throws Exception {
+        try (FileChannel in = FileChannel.open(encIn.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(plainOut.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long ctLen = verifyTree(in, h, dk.macKey);
+            if (FileECB.processMapped(false, in, HEADER_LEN_TREE, ctLen, out, 0, dk.ks) != h.plaintextLen) {
+                throw new IOException("Plaintext length mismatch (wrong key or internal error).");
+            }
+        }
+    }
+
+    /** Checks the root tag over the trailer, then every chunk; returns the ciphertext length. */
+    private static long verifyTree(FileChannel ch, Header h, byte[] macKey) throws Exception {
+        long ctLen = (h.plaintextLen / 16 + 1) * 16;
+        long chunks = (ctLen + h.chunkSize - 1) / h.chunkSize;
+        if (chunks * TAG_LEN > Integer.MAX_VALUE || ch.size() != HEADER_LEN_TREE + ctLen + chunks * TAG_LEN)
+            throw new IOException("Invalid file: length does not match header");
+
+        byte[] stored = new byte[(int) chunks * TAG_LEN];
+        FileECB.readFully(ch, stored, stored.length, HEADER_LEN_TREE + ctLen);
+        if (!MessageDigest.isEqual(rootTag(macKey, h.fields, stored), h.tag)) {
+            throw new SecurityException("HMAC verification failed (file modified or wrong key).");
+        }
+        // the stored chunk tags are authentic now, so a mismatch can be blamed on its chunk
+        byte[] computed = chunkTags(ch, HEADER_LEN_TREE, ctLen, h.chunkSize, macKey);
+        for (int c = 0; c < chunks; c++) {
+            int off = c * TAG_LEN;
+            if (!MessageDigest.isEqual(Arrays.copyOfRange(stored, off, off + TAG_LEN),
+                    Arrays.copyOfRange(computed, off, off + TAG_LEN)))
+                throw new ChunkMismatchException(c);
+        }
+        return ctLen;
+    }
+
+    /** HMAC(0x00 || index || chunk) of every chunk of ch[pos, pos + len), hashed in parallel. */
+    private static byte[] chunkTags(FileChannel ch, long pos, long len, int chunkSize, byte[] macKey)
+            throws Exception {
+        long chunks = (len + chunkSize - 1) / chunkSize;
+        if (chunks * TAG_LEN > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("chunkSize too small for this file");
+        byte[] tags = new byte[(int) chunks * TAG_LEN];
+        long window = Math.max(chunkSize, MAP_WINDOW - MAP_WINDOW % chunkSize);
+        try {
+            Parallel.forRange(len, chunkSize, (from, to) -> {
+                try {
+                    Mac mac = initHmac(macKey);
+                    byte[] index = new byte[9];
+                    for (long w = from; w < to; w += window) {
+                        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, pos + w, Math.min(window, to - w));
+                        for (int off = 0; off < m.capacity(); off += chunkSize) {
+                            long c = (w + off) / chunkSize;
+                            ByteBuffer.wrap(index, 1, 8).putLong(c);
+                            mac.update(index);
+                            mac.update(m.slice(off, Math.min(chunkSize, m.capacity() - off)));
+                            mac.doFinal(tags, (int) c * TAG_LEN);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return tags;
+    }
+
+    /** HMAC(0x01 || fields || chunk tags): binds the header and the number and order of chunks. */
+    private static byte[] rootTag(byte[] macKey, byte[] fields, byte[] chunkTags) throws Exception {
+        Mac mac = initHmac(macKey);
+        mac.update((byte) 0x01);
+        mac.update(fields);
+        mac.update(chunkTags);
+        return mac.doFinal();
+    }
+
+    private static void moveIntoPlace(File tmp, File target) throws IOException {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] buildFields(byte version, long plaintextLen, int chunkSize) {
+        ByteBuffer bb = ByteBuffer.allocate(version == VERSION_TREE ? FIELDS_LEN_TREE : FIELDS_LEN);
         bb.put(MAGIC);
-        bb.put(VERSION);
+        bb.put(version);
         bb.put(MODE_ECB);
         bb.putLong(plaintextLen);
+        if (version == VERSION_TREE) bb.putInt(chunkSize);
         return bb.array();
     }
 
-    private static Header readAndValidateHeader(File encIn) throws IOException {
-        long fileLen = encIn.length();
-        if (fileLen < HEADER_LEN) throw new IOException("Invalid file: too small");
-
+    private static Header readAndValidateHeader(InputStream is) throws IOException {
         byte[] fields = new byte[FIELDS_LEN];
         byte[] tag = new byte[TAG_LEN];
-
-        try (InputStream is = new BufferedInputStream(new FileInputStream(encIn), 64 * 1024)) {
+        int chunkSize = 0;
+        try {
             readFully(is, fields, 0, fields.length);
-            readFully(is, tag, 0, tag.length);
-        }
 
-        // validate magic
-        for (int i = 0; i < MAGIC.length; i++) {
-            if (fields[i] != MAGIC[i]) throw new IOException("Invalid file: bad MAGIC");
-        }
+            // validate magic
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (fields[i] != MAGIC[i]) throw new IOException("Invalid file: bad MAGIC");
+            }
 
-        // validate version
-        byte ver = fields[8];
-        if (ver != VERSION) throw new IOException("Unsupported VERSION: " + ver);
+            // validate version
+            byte ver = fields[8];
+            if (ver == VERSION_TREE) {
+                fields = Arrays.copyOf(fields, FIELDS_LEN_TREE);
+                readFully(is, fields, FIELDS_LEN, FIELDS_LEN_TREE - FIELDS_LEN);
+                chunkSize = ByteBuffer.wrap(fields, FIELDS_LEN, 4).getInt();
+                if (chunkSize < 16 || (chunkSize & 15) != 0 || chunkSize > 1 << 30)
+                    throw new IOException("Invalid chunk size in header");
+            } else if (ver != VERSION) {
+                throw new IOException("Unsupported VERSION: " + ver);
+            }
+            readFully(is, tag, 0, tag.length);
+        } catch (EOFException e) {
+            throw new IOException("Invalid file: too small");
+        }
 
         // validate mode
         byte mode = fields[9];
@@ -112,9 +342,10 @@ public class HMAC {
 
         // parse plaintext length
         long plainLen = ByteBuffer.wrap(fields, 10, 8).getLong();
-        if (plainLen < 0) throw new IOException("Invalid plaintext length in header");
+        if (plainLen < 0 || plainLen > Long.MAX_VALUE - HEADER_LEN_TREE - 16)
+            throw new IOException("Invalid plaintext length in header");
 
-        return new Header(fields, tag, plainLen);
+        return new Header(fields, tag, plainLen, chunkSize);
     }
 
     /** Overwrite the placeholder tag at TAG_OFFSET. */
@@ -126,32 +357,7 @@ public class HMAC {
         }
     }
 
-    private static void verifyHmacOrThrow(File encIn, Header h, byte[] macKey) throws Exception {
-        Mac mac = initHmac(macKey);
-
-        // HMAC input: fields || ciphertext
-        mac.update(h.fields);
-
-        // stream ciphertext bytes (from HEADER_LEN to EOF) into mac
-        try (InputStream is = new BufferedInputStream(new FileInputStream(encIn), 64 * 1024)) {
-            skipFully(is, HEADER_LEN);
-
-            byte[] buf = new byte[64 * 1024];
-            int n;
-            while ((n = is.read(buf)) != -1) {
-                mac.update(buf, 0, n);
-            }
-        }
-
-        byte[] computed = mac.doFinal();
-
-        // constant-time compare
-        if (!MessageDigest.isEqual(computed, h.tag)) {
-            throw new SecurityException("HMAC verification failed (file modified or wrong key).");
-        }
-    }
-
-    private static Mac initHmac(byte[] macKey) throws Exception {
+    private static Mac initHmac(byte[] macKey) throws GeneralSecurityException {
         Mac mac = Mac.getInstance("HmacSHA256");
         mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
         return mac;
@@ -167,19 +373,6 @@ public class HMAC {
         return new DerivedKeys(new KeySchedule(mainKey), macKey32);
     }
 
-    private static void skipFully(InputStream is, long bytes) throws IOException {
-        long left = bytes;
-        while (left > 0) {
-            long s = is.skip(left);
-            if (s <= 0) { // skip() is allowed to return 0, so fallback to read
-                if (is.read() == -1) throw new EOFException("Unexpected EOF while skipping");
-                left--;
-            } else {
-                left -= s;
-            }
-        }
-    }
-
     private static void readFully(InputStream is, byte[] b, int off, int len) throws IOException {
         int got = 0;
         while (got < len) {
@@ -209,6 +402,57 @@ public class HMAC {
         }
     }
 
+    /** InputStream wrapper: every byte read also goes into the Mac. */
+    private static final class MacInputStream extends FilterInputStream {
+        private final Mac mac;
+
+        MacInputStream(InputStream in, Mac mac) {
+            super(in);
+            this.mac = mac;
+        }
+
+        @Override public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) mac.update((byte) b);
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) mac.update(b, off, n);
+            return n;
+        }
+
+        @Override public long skip(long n) throws IOException {
+            // skipped bytes must still be MACed
+            byte[] buf = new byte[(int) Math.min(n, 8192)];
+            int got = read(buf, 0, buf.length);
+            return Math.max(got, 0);
+        }
+
+        @Override public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
     private static final class DerivedKeys {
         final KeySchedule ks;
         final byte[] macKey;
@@ -219,10 +463,12 @@ public class HMAC {
         final byte[] fields;    // authenticated fields bytes
         final byte[] tag;       // stored tag from header
         final long plaintextLen;
-        Header(byte[] fields, byte[] tag, long plaintextLen) {
+        final int chunkSize;    // VERSION 2 only, 0 for VERSION 1
+        Header(byte[] fields, byte[] tag, long plaintextLen, int chunkSize) {
             this.fields = fields;
             this.tag = tag;
             this.plaintextLen = plaintextLen;
+            this.chunkSize = chunkSize;
         }
     }
 }
@@ -0,0 +1,240 @@
+package aes.davidr.modes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * Cipher block chaining with PKCS#7 padding.
+ *
+ * Decryption only needs ciphertext blocks i and i-1 for plaintext block i, so
+ * it is one bulk ECB decrypt plus an XOR with the ciphertext shifted by a
+ * block, split across cores by {@link Parallel}. In place, each piece keeps
+ * the ciphertext it still needs in a small per-thread stage rather than a
+ * copy of the whole input. Encryption of one stream is serial;
+ * {@link #cbcEncryptMulti} runs several independent streams side by side so
+ * each engine call still gets one block from every stream.
+ */
+public final class CBC {
+    private static final int BLOCK = 16;
+    private static final int STAGE_CHUNK = 8192; // in-place decrypt bytes per engine call
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final ThreadLocal<byte[]> STAGE = ThreadLocal.withInitial(() -> new byte[BLOCK + STAGE_CHUNK]);
+
+    private CBC() {
+    }
+
+    /** PKCS#7-padded CBC encryption into a new array. */
+    public static byte[] cbcEncrypt(byte[] iv, byte[] plaintext, KeySchedule ks) {
+        if (plaintext == null)
+            throw new IllegalArgumentException("null");
+        byte[] padded = Padding.PKCS7(true, plaintext);
+        cbcEncryptBlocks(iv, padded, 0, padded.length, padded, 0, ks);
+        return padded;
+    }
+
+    /** CBC decryption and PKCS#7 unpadding into a new array. */
+    public static byte[] cbcDecrypt(byte[] iv, byte[] ciphertext, KeySchedule ks) {
+        if (ciphertext == null)
+            throw new IllegalArgumentException("null");
+        if (ciphertext.length == 0 || (ciphertext.length & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("ciphertext must be multiple of 16");
+        check(iv, ciphertext, 0, ciphertext.length, ciphertext, 0, ks);
+        // the last block first, so the result is allocated once at its unpadded size
+        int body = ciphertext.length - BLOCK;
+        byte[] last = new byte[BLOCK];
+        decryptRange(iv, ciphertext, 0, body, BLOCK, last, -body, ks, BlockEngines.selected()); // into last[0]
+        int tail = Padding.unpadPKCS7(last, 0, BLOCK);
+        byte[] out = new byte[body + tail];
+        cbcDecryptBlocks(iv, ciphertext, 0, body, out, 0, ks);
+        System.arraycopy(last, 0, out, body, tail);
+        return out;
+    }
+
+    /**
+     * Unpadded CBC encryption of len bytes (multiple of 16) from in[inOff] to
+     * out[outOff]; in and out may be the same array at the same offset.
+     */
+    public static void cbcEncryptBlocks(byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks) {
+        check(iv, in, inOff, len, out, outOff, ks);
+        BlockEngine engine = BlockEngines.selected();
+        byte[] prev = iv;
+        int prevOff = 0;
+        for (int p = 0; p < len; p += BLOCK) {
+            for (int i = 0; i < BLOCK; i++)
+                out[outOff + p + i] = (byte) (in[inOff + p + i] ^ prev[prevOff + i]);
+            engine.processBlock(AES.ENCRYPT_MODE, out, ks, outOff + p);
+            prev = out;
+            prevOff = outOff + p;
+        }
+    }
+
+    /**
+     * Unpadded CBC decryption of len bytes (multiple of 16) from in[inOff] to
+     * out[outOff]. Overlapping ranges behave as if the input were copied first;
+     * in place at the same offset the input is staged a chunk at a time instead.
+     */
+    public static void cbcDecryptBlocks(byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks) {
+        check(iv, in, inOff, len, out, outOff, ks);
+        if (in == out && inOff == outOff) {
+            decryptInPlace(iv, out, outOff, len, ks);
+            return;
+        }
+        if (in == out && inOff < outOff + len && outOff < inOff + len) {
+            // every piece needs the ciphertext block before it, so keep the input intact
+            in = Arrays.copyOfRange(in, inOff, inOff + len);
+            inOff = 0;
+        }
+        BlockEngine engine = BlockEngines.selected();
+        if (!Parallel.worthSplitting(len)) {
+            decryptRange(iv, in, inOff, 0, len, out, outOff, ks, engine);
+            return;
+        }
+        byte[] ct = in;
+        int ctOff = inOff;
+        Parallel.forRange(len, (from, to) -> decryptRange(iv, ct, ctOff, (int) from, (int) (to - from), out, outOff,
+                ks, engine));
+    }
+
+    /**
+     * In-place decryption of b[off, off + len). Pieces are multiples of unit
+     * bytes; the ciphertext block before each piece is saved before any piece
+     * runs, and inside a piece decryptStaged carries it along.
+     */
+    private static void decryptInPlace(byte[] iv, byte[] b, int off, int len, KeySchedule ks) {
+        BlockEngine engine = BlockEngines.selected();
+        if (!Parallel.worthSplitting(len)) {
+            decryptStaged(iv, 0, b, off, len, ks, engine);
+            return;
+        }
+        int unit = Math.max(BLOCK, len / (Parallel.parallelism() * 4) & ~(BLOCK - 1));
+        int pieces = (len + unit - 1) / unit;
+        byte[] before = new byte[pieces * BLOCK]; // block j: the ciphertext block ending at j * unit
+        System.arraycopy(iv, 0, before, 0, BLOCK);
+        for (int j = 1; j < pieces; j++)
+            System.arraycopy(b, off + j * unit - BLOCK, before, j * BLOCK, BLOCK);
+        Parallel.forRange(len, unit, (from, to) -> decryptStaged(before, (int) (from / unit) * BLOCK, b,
+                off + (int) from, (int) (to - from), ks, engine));
+    }
+
+    /**
+     * Decrypts b[off, off + len) in place, chaining from prev[prevOff]. Each
+     * chunk is copied behind the ciphertext block before it in a per-thread
+     * stage, decrypted from there and XORed with the stage shifted by a block;
+     * the chunk's last ciphertext block moves to the front for the next chunk.
+     */
+    private static void decryptStaged(byte[] prev, int prevOff, byte[] b, int off, int len, KeySchedule ks,
+            BlockEngine engine) {
+        byte[] stage = STAGE.get();
+        System.arraycopy(prev, prevOff, stage, 0, BLOCK);
+        for (int p = 0; p < len; p += STAGE_CHUNK) {
+            int n = Math.min(STAGE_CHUNK, len - p);
+            System.arraycopy(b, off + p, stage, BLOCK, n);
+            engine.processBlocks(AES.DECRYPT_MODE, stage, BLOCK, n, b, off + p, ks);
+            xor(b, off + p, stage, 0, n);
+            System.arraycopy(stage, n, stage, 0, BLOCK);
+        }
+    }
+
+    /** Blocks [f, f + n) of the message; block 0 chains from iv. */
+    private static void decryptRange(byte[] iv, byte[] ct, int ctOff, int f, int n, byte[] out, int outOff,
+            KeySchedule ks, BlockEngine engine) {
+        if (n == 0)
+            return;
+        engine.processBlocks(AES.DECRYPT_MODE, ct, ctOff + f, n, out, outOff + f, ks);
+        if (f == 0)
+            xor(out, outOff, iv, 0, BLOCK);
+        else
+            xor(out, outOff + f, ct, ctOff + f - BLOCK, BLOCK);
+        xor(out, outOff + f + BLOCK, ct, ctOff + f, n - BLOCK);
+    }
+
+    /** dst[dOff, dOff + len) ^= src[sOff, sOff + len), len a multiple of 16. */
+    private static void xor(byte[] dst, int dOff, byte[] src, int sOff, int len) {
+        for (int i = 0; i < len; i += 8)
+            LONG_LE.set(dst, dOff + i, (long) LONG_LE.get(dst, dOff + i) ^ (long) LONG_LE.get(src, sOff + i));
+    }
+
+    /**
+     * PKCS#7-padded CBC encryption of several independent messages, each with
+     * its own IV, interleaved through the engine. Returns one ciphertext per
+     * message.
+     */
+    public static byte[][] cbcEncryptMulti(byte[][] ivs, byte[][] plaintexts, KeySchedule ks) {
+        if (ivs == null || plaintexts == null)
+            throw new IllegalArgumentException("null");
+        byte[][] out = new byte[plaintexts.length][];
+        for (int k = 0; k < plaintexts.length; k++) {
+            if (plaintexts[k] == null)
+                throw new IllegalArgumentException("null");
+            out[k] = Padding.PKCS7(true, plaintexts[k]);
+        }
+        cbcEncryptMulti(ivs, out, out, ks);
+        return out;
+    }
+
+    /**
+     * Unpadded CBC encryption of N streams at once: stream k encrypts in[k]
+     * (multiple of 16, lengths may differ) into out[k] with ivs[k]. Step j
+     * gathers block j of every stream still running, chains it, and encrypts
+     * all of them in one bulk engine call. in[k] and out[k] may be the same array.
+     */
+    public static void cbcEncryptMulti(byte[][] ivs, byte[][] in, byte[][] out, KeySchedule ks) {
+        if (ivs == null || in == null || out == null || ks == null)
+            throw new IllegalArgumentException("null");
+        int streams = in.length;
+        if (ivs.length != streams || out.length != streams)
+            throw new IllegalArgumentException("stream count mismatch");
+        int maxLen = 0;
+        for (int k = 0; k < streams; k++) {
+            check(ivs[k], in[k], 0, in[k] == null ? 0 : in[k].length, out[k], 0, ks);
+            maxLen = Math.max(maxLen, in[k].length);
+        }
+
+        BlockEngine engine = BlockEngines.selected();
+        byte[] lane = new byte[streams * BLOCK];
+        byte[] prev = new byte[streams * BLOCK];
+        for (int k = 0; k < streams; k++)
+            System.arraycopy(ivs[k], 0, prev, k * BLOCK, BLOCK);
+        int[] active = new int[streams];
+
+        for (int p = 0; p < maxLen; p += BLOCK) {
+            int n = 0;
+            for (int k = 0; k < streams; k++) {
+                if (p < in[k].length) {
+                    for (int i = 0; i < BLOCK; i++)
+                        lane[n * BLOCK + i] = (byte) (in[k][p + i] ^ prev[k * BLOCK + i]);
+                    active[n++] = k;
+                }
+            }
+            engine.processBlocks(AES.ENCRYPT_MODE, lane, ks, 0, n * BLOCK);
+            for (int j = 0; j < n; j++) {
+                int k = active[j];
+                System.arraycopy(lane, j * BLOCK, out[k], p, BLOCK);
+                System.arraycopy(lane, j * BLOCK, prev, k * BLOCK, BLOCK);
+            }
+        }
+    }
+
+    private static void check(byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff, KeySchedule ks) {
+        if (iv == null || in == null || out == null || ks == null)
+            throw new IllegalArgumentException("null");
+        if (iv.length != BLOCK)
+            throw new IllegalArgumentException("iv must be 16 bytes");
+        if ((inOff | outOff | len) < 0 || inOff + len > in.length || outOff + len > out.length)
+            throw new IllegalArgumentException("bad range");
+        if ((len & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+    }
+}
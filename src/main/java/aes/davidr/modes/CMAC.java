@@ -0,0 +1,106 @@
+package aes.davidr.modes;
+
+import java.util.Arrays;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * AES-CMAC (RFC 4493 / NIST SP 800-38B), 16-byte tags. CBC-MAC is serial by
+ * nature; see {@link PMAC} for a MAC that splits across cores.
+ *
+ * update() may be called any number of times; doFinal() returns the tag and
+ * resets the instance for the next message under the same key.
+ */
+public final class CMAC {
+    public static final int TAG_LENGTH = 16;
+    private static final int BLOCK = 16;
+
+    private final KeySchedule ks;
+    private final BlockEngine engine = BlockEngines.selected();
+    private final byte[] k1 = new byte[BLOCK];
+    private final byte[] k2 = new byte[BLOCK];
+    private final byte[] x = new byte[BLOCK]; // chaining value
+    private final byte[] last = new byte[BLOCK]; // held back: it may be the final block
+    private int lastLen;
+
+    public CMAC(KeySchedule ks) {
+        if (ks == null)
+            throw new IllegalArgumentException("null");
+        this.ks = ks;
+        engine.processBlock(AES.ENCRYPT_MODE, k1, ks, 0); // L = E(0)
+        dbl(k1);
+        System.arraycopy(k1, 0, k2, 0, BLOCK);
+        dbl(k2);
+    }
+
+    /** One-shot tag of data. */
+    public static byte[] cmac(KeySchedule ks, byte[] data) {
+        if (data == null)
+            throw new IllegalArgumentException("null");
+        CMAC m = new CMAC(ks);
+        m.update(data, 0, data.length);
+        return m.doFinal();
+    }
+
+    public void update(byte[] in, int off, int len) {
+        if (in == null)
+            throw new IllegalArgumentException("null");
+        if ((off | len) < 0 || off + len > in.length)
+            throw new IllegalArgumentException("bad range");
+        while (len > 0) {
+            if (lastLen == BLOCK) {
+                // more data follows, so the held block is not the last one
+                chain(last, 0);
+                lastLen = 0;
+            }
+            int take = Math.min(len, BLOCK - lastLen);
+            System.arraycopy(in, off, last, lastLen, take);
+            lastLen += take;
+            off += take;
+            len -= take;
+            // whole blocks that are surely not last go straight through
+            while (lastLen == BLOCK && len > BLOCK) {
+                chain(last, 0);
+                System.arraycopy(in, off, last, 0, BLOCK);
+                off += BLOCK;
+                len -= BLOCK;
+            }
+        }
+    }
+
+    public byte[] doFinal() {
+        byte[] k;
+        if (lastLen == BLOCK) {
+            k = k1;
+        } else {
+            last[lastLen] = (byte) 0x80;
+            for (int i = lastLen + 1; i < BLOCK; i++)
+                last[i] = 0;
+            k = k2;
+        }
+        for (int i = 0; i < BLOCK; i++)
+            last[i] ^= k[i];
+        chain(last, 0);
+        byte[] tag = x.clone();
+        Arrays.fill(x, (byte) 0);
+        lastLen = 0;
+        return tag;
+    }
+
+    private void chain(byte[] b, int off) {
+        for (int i = 0; i < BLOCK; i++)
+            x[i] ^= b[off + i];
+        engine.processBlock(AES.ENCRYPT_MODE, x, ks, 0);
+    }
+
+    /** In place: b = b * x in GF(2^128), big-endian, reduction 0x87. */
+    static void dbl(byte[] b) {
+        int carry = (b[0] & 0x80) != 0 ? 0x87 : 0;
+        for (int i = 0; i < BLOCK - 1; i++)
+            b[i] = (byte) ((b[i] << 1) | ((b[i + 1] & 0xFF) >>> 7));
+        b[BLOCK - 1] = (byte) ((b[BLOCK - 1] << 1) ^ carry);
+    }
+}
@@ -0,0 +1,161 @@
+package aes.davidr.modes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * Counter mode. The keystream block for counter i is E(iv + i), so any byte
+ * of the stream can be produced without the ones before it: encryption and
+ * decryption are the same XOR, take any length without padding, can start at
+ * any byte offset and split across cores (see {@link Parallel}).
+ *
+ * Counter blocks are built in batches and encrypted with one bulk engine call
+ * per batch. The default counter is the whole 16-byte block, big-endian, the
+ * same as JCE "AES/CTR/NoPadding".
+ */
+public final class CTR {
+    private static final int BLOCK = 16;
+    private static final int BATCH = 4096; // keystream bytes per engine call
+
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    /** Which part of the counter block counts and in which byte order. */
+    enum Increment {
+        /** all 16 bytes, big-endian (NIST SP 800-38A, JCE) */
+        BE128,
+        /** last 4 bytes, big-endian, wrapping (GCM) */
+        BE32,
+        /** first 4 bytes, little-endian, wrapping (GCM-SIV) */
+        LE32
+    }
+
+    private CTR() {
+    }
+
+    /** Encrypts or decrypts a whole message from keystream offset 0 into a new array. */
+    public static byte[] ctrCryptBytes(byte[] iv, byte[] in, KeySchedule ks) {
+        if (in == null)
+            throw new IllegalArgumentException("null");
+        byte[] out = new byte[in.length];
+        ctrProcessBytes(iv, 0, in, 0, in.length, out, 0, ks);
+        return out;
+    }
+
+    /**
+     * len bytes from in[inOff] to out[outOff], XORed with the keystream starting
+     * at byte offset streamOffset. Any length, any offset; in and out may be the
+     * same array, overlapping ranges behave as if the input were copied first.
+     */
+    public static void ctrProcessBytes(byte[] iv, long streamOffset, byte[] in, int inOff, int len, byte[] out,
+            int outOff, KeySchedule ks) {
+        process(Increment.BE128, iv, streamOffset, in, inOff, len, out, outOff, ks, null);
+    }
+
+    /**
+     * As above, building the keystream in the caller's scratch buffer (at least
+     * 16 bytes, 4 KB is plenty) instead of a new one: inputs too small to be
+     * split across cores allocate nothing. Larger ones still get a buffer per piece.
+     */
+    public static void ctrProcessBytes(byte[] iv, long streamOffset, byte[] in, int inOff, int len, byte[] out,
+            int outOff, KeySchedule ks, byte[] scratch) {
+        if (scratch == null)
+            throw new IllegalArgumentException("null");
+        if (scratch.length < BLOCK)
+            throw new IllegalArgumentException("scratch must be at least 16 bytes");
+        process(Increment.BE128, iv, streamOffset, in, inOff, len, out, outOff, ks, scratch);
+    }
+
+    static void process(Increment inc, byte[] iv, long streamOffset, byte[] in, int inOff, int len, byte[] out,
+            int outOff, KeySchedule ks) {
+        process(inc, iv, streamOffset, in, inOff, len, out, outOff, ks, null);
+    }
+
+    private static void process(Increment inc, byte[] iv, long streamOffset, byte[] in, int inOff, int len,
+            byte[] out, int outOff, KeySchedule ks, byte[] scratch) {
+        if (iv == null || in == null || out == null || ks == null)
+            throw new IllegalArgumentException("null");
+        if (iv.length != BLOCK)
+            throw new IllegalArgumentException("iv must be 16 bytes");
+        if ((inOff | outOff | len) < 0 || streamOffset < 0 || inOff + len > in.length || outOff + len > out.length)
+            throw new IllegalArgumentException("bad range");
+        if (in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len) {
+            System.arraycopy(in, inOff, out, outOff, len);
+            in = out;
+            inOff = outOff;
+        }
+
+        BlockEngine engine = BlockEngines.selected();
+        if (scratch != null && !Parallel.worthSplitting(len)) {
+            xorKeystream(inc, iv, streamOffset, in, inOff, len, out, outOff, ks, engine, scratch);
+            return;
+        }
+        byte[] src = in;
+        int srcOff = inOff;
+        Parallel.forRange(len, (from, to) -> xorKeystream(inc, iv, streamOffset + from, src, srcOff + (int) from,
+                (int) (to - from), out, outOff + (int) from, ks, engine,
+                new byte[(int) Math.min(BATCH, (to - from + 2 * BLOCK - 1) & ~(BLOCK - 1))]));
+    }
+
+    private static void xorKeystream(Increment inc, byte[] iv, long pos, byte[] in, int inOff, int len, byte[] out,
+            int outOff, KeySchedule ks, BlockEngine engine, byte[] stream) {
+        int room = stream.length & ~(BLOCK - 1);
+        int done = 0;
+        while (done < len) {
+            int skip = (int) (pos & (BLOCK - 1));
+            int take = Math.min(len - done, room - skip);
+            int bytes = (skip + take + BLOCK - 1) & ~(BLOCK - 1);
+            counterBlocks(inc, iv, pos >>> 4, stream, bytes / BLOCK);
+            engine.processBlocks(AES.ENCRYPT_MODE, stream, ks, 0, bytes);
+            for (int i = 0; i < take; i++)
+                out[outOff + done + i] = (byte) (in[inOff + done + i] ^ stream[skip + i]);
+            done += take;
+            pos += take;
+        }
+    }
+
+    /** Writes counter blocks iv + first .. iv + first + count - 1 into dst from 0. */
+    static void counterBlocks(Increment inc, byte[] iv, long first, byte[] dst, int count) {
+        switch (inc) {
+        case BE128: {
+            long hi = (long) LONG_BE.get(iv, 0);
+            long lo = (long) LONG_BE.get(iv, 8);
+            long nlo = lo + first;
+            if (Long.compareUnsigned(nlo, lo) < 0)
+                hi++;
+            lo = nlo;
+            for (int i = 0; i < count; i++) {
+                LONG_BE.set(dst, i * BLOCK, hi);
+                LONG_BE.set(dst, i * BLOCK + 8, lo);
+                if (++lo == 0)
+                    hi++;
+            }
+            break;
+        }
+        case BE32: {
+            int c = (int) INT_BE.get(iv, 12) + (int) first;
+            for (int i = 0; i < count; i++, c++) {
+                System.arraycopy(iv, 0, dst, i * BLOCK, 12);
+                INT_BE.set(dst, i * BLOCK + 12, c);
+            }
+            break;
+        }
+        default: {
+            int c = (int) INT_LE.get(iv, 0) + (int) first;
+            for (int i = 0; i < count; i++, c++) {
+                INT_LE.set(dst, i * BLOCK, c);
+                System.arraycopy(iv, 4, dst, i * BLOCK + 4, 12);
+            }
+            break;
+        }
+        }
+    }
+}
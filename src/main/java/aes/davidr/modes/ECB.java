@@ -1,45 +1,178 @@
 package aes.davidr.modes;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
-import aes.davidr.engine.AES;
+import aes.davidr.engine.BitslicedAES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
 import aes.davidr.engine.KeySchedule;
 
 public final class ECB{
     private static final int BLOCK = 16;
+    private static final int MAP_WINDOW = 64 << 20; // bytes mapped at a time, multiple of 16
 
     private ECB() {
     }
 
     /** In-place single-block ECB (fast, minimal checks). */
     public static byte[] ecbProcessBlock(boolean mode, byte[] in, KeySchedule ks, int offset) {
-        ecbProcessBlocks(mode, in, ks, 0, 16);
+        ecbProcessBlocks(mode, in, ks, offset, BLOCK);
         return in;
     }
 
     /**
      * In-place bulk ECB: process len bytes from offset. len MUST be multiple of 16.
+     * Large inputs are split across the common ForkJoinPool (see {@link Parallel}).
      */
     public static void ecbProcessBlocks(boolean mode, byte[] in, KeySchedule ks, int offset, int len) {
-        if (in == null || ks == null)
+        ecbProcessBlocks(mode, in, ks, offset, len, BlockEngines.selected());
+    }
+
+    /** In-place bulk ECB on an explicit engine. len MUST be multiple of 16. */
+    public static void ecbProcessBlocks(boolean mode, byte[] in, KeySchedule ks, int offset, int len,
+            BlockEngine engine) {
+        if (in == null || ks == null || engine == null)
             throw new IllegalArgumentException("null");
         if ((offset | len) < 0 || offset + len > in.length)
             throw new IllegalArgumentException("bad range");
         if ((len & (BLOCK - 1)) != 0) // if len is multiple of 16, its last 4 bits are 0 len & 15 will be 0 only for
                                       // multiples of 16
             throw new IllegalArgumentException("len must be multiple of 16");
-        for (int off = offset; off < (offset + len); off += BLOCK) {
-            AES.blockRun(mode, in, ks, off);
+        Parallel.forRange(len, (from, to) -> engine.processBlocks(mode, in, ks, offset + (int) from, (int) (to - from)));
+    }
+
+    /**
+     * Bulk ECB from in[inOff] to out[outOff]: len bytes, multiple of 16. in and
+     * out may be the same array; overlapping ranges behave as if the input were
+     * copied first.
+     */
+    public static void ecbProcessBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks) {
+        ecbProcessBlocks(mode, in, inOff, len, out, outOff, ks, BlockEngines.selected());
+    }
+
+    /** Bulk ECB from in to out on an explicit engine. len MUST be multiple of 16. */
+    public static void ecbProcessBlocks(boolean mode, byte[] in, int inOff, int len, byte[] out, int outOff,
+            KeySchedule ks, BlockEngine engine) {
+        if (in == null || out == null || ks == null || engine == null)
+            throw new IllegalArgumentException("null");
+        if ((inOff | outOff | len) < 0 || inOff + len > in.length || outOff + len > out.length)
+            throw new IllegalArgumentException("bad range");
+        if ((len & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+        if (in == out && inOff != outOff && inOff < outOff + len && outOff < inOff + len) {
+            // pieces run concurrently, so a shifted overlap is resolved up front
+            System.arraycopy(in, inOff, out, outOff, len);
+            ecbProcessBlocks(mode, out, ks, outOff, len, engine);
+            return;
+        }
+        Parallel.forRange(len, (from, to) -> engine.processBlocks(mode, in, inOff + (int) from, (int) (to - from),
+                out, outOff + (int) from, ks));
+    }
+
+    /**
+     * Bulk ECB over in.remaining() bytes (multiple of 16) into out, advancing
+     * both positions. Heap and direct buffers are processed where they are;
+     * in and out may be the same buffer.
+     */
+    public static void ecbProcessBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks) {
+        ecbProcessBlocks(mode, in, out, ks, BlockEngines.selected());
+    }
+
+    /** Bulk ECB from buffer to buffer on an explicit engine. */
+    public static void ecbProcessBlocks(boolean mode, ByteBuffer in, ByteBuffer out, KeySchedule ks,
+            BlockEngine engine) {
+        if (in == null || out == null || ks == null || engine == null)
+            throw new IllegalArgumentException("null");
+        if (out.isReadOnly())
+            throw new IllegalArgumentException("read-only output");
+        if (out.remaining() < in.remaining())
+            throw new IllegalArgumentException("bad range");
+        if ((in.remaining() & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+        int len = in.remaining();
+        processBuffers(mode, in, out, ks, engine);
+        // in == out is one buffer processed in place: it advances once
+        in.position(in.position() + len);
+        if (in != out)
+            out.position(out.position() + len);
+    }
+
+    /** src to dst without moving their positions, split across the pool when large. */
+    private static void processBuffers(boolean mode, ByteBuffer src, ByteBuffer dst, KeySchedule ks,
+            BlockEngine engine) {
+        int srcPos = src.position();
+        int dstPos = dst.position();
+        Parallel.forRange(src.remaining(), (from, to) -> {
+            int n = (int) (to - from);
+            engine.processBlocks(mode, src.slice(srcPos + (int) from, n), dst.slice(dstPos + (int) from, n), ks);
+        });
+    }
+
+    /**
+     * Bulk ECB over a file region of any length (past 2 GB included), read from
+     * in at inPos and written to out at outPos. Both are memory-mapped window by
+     * window and processed through the direct-buffer path, so nothing is copied
+     * onto the heap. in and out may be the same channel with inPos == outPos
+     * (in place, the channel must be open for reading and writing); other
+     * overlapping ranges are not supported. out grows as needed; call
+     * out.force(true) afterwards for durability. len MUST be multiple of 16.
+     */
+    public static void ecbProcessMapped(boolean mode, FileChannel in, long inPos, long len, FileChannel out,
+            long outPos, KeySchedule ks) throws IOException {
+        ecbProcessMapped(mode, in, inPos, len, out, outPos, ks, MAP_WINDOW);
+    }
+
+    static void ecbProcessMapped(boolean mode, FileChannel in, long inPos, long len, FileChannel out, long outPos,
+            KeySchedule ks, int window) throws IOException {
+        if (in == null || out == null || ks == null)
+            throw new IllegalArgumentException("null");
+        if ((inPos | outPos | len) < 0 || inPos + len > in.size())
+            throw new IllegalArgumentException("bad range");
+        if ((len & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+
+        BlockEngine engine = BlockEngines.selected();
+        boolean inPlace = in == out && inPos == outPos;
+        for (long done = 0; done < len; done += window) {
+            int n = (int) Math.min(window, len - done);
+            MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, outPos + done, n);
+            ByteBuffer src = inPlace ? dst : in.map(FileChannel.MapMode.READ_ONLY, inPos + done, n);
+            processBuffers(mode, src, dst, ks, engine);
         }
     }
 
+    /**
+     * In-place bulk ECB through the bitsliced engine: no table lookups indexed by
+     * key or data, 8 blocks per pass. len MUST be multiple of 16.
+     */
+    public static void ecbProcessBlocksConstantTime(boolean mode, byte[] in, KeySchedule ks, int offset, int len) {
+        if (in == null || ks == null)
+            throw new IllegalArgumentException("null");
+        if ((offset | len) < 0 || offset + len > in.length)
+            throw new IllegalArgumentException("bad range");
+        if ((len & (BLOCK - 1)) != 0)
+            throw new IllegalArgumentException("len must be multiple of 16");
+        Parallel.forRange(len, (from, to) -> BitslicedAES.processBlocks(mode, in, ks, offset + (int) from,
+                (int) (to - from)));
+    }
+
     private static byte[] ecbEncryptAny(byte[] plaintext, KeySchedule ks) {
         if (plaintext == null || ks == null)
             throw new IllegalArgumentException("null");
 
-        byte[] padded = Padding.PKCS7(true, plaintext);
-        ECB.ecbProcessBlocks(true, padded, ks); 
-        return padded;
+        // whole blocks go straight from the plaintext into the output, only the
+        // last (padded) block is assembled in place
+        int full = plaintext.length & ~(BLOCK - 1);
+        byte[] out = new byte[full + BLOCK];
+        ecbProcessBlocks(true, plaintext, 0, full, out, 0, ks);
+        System.arraycopy(plaintext, full, out, full, plaintext.length - full);
+        Padding.padPKCS7(out, full, plaintext.length - full);
+        ecbProcessBlocks(true, out, ks, full, BLOCK);
+        return out;
     }
 
     private static byte[] ecbDecryptAny(byte[] ciphertext, KeySchedule ks) {
@@ -48,9 +181,18 @@ public final class ECB{
         if ((ciphertext.length & 15) != 0)
             throw new IllegalArgumentException("ciphertext must be multiple of 16");
 
-        byte[] buf = Arrays.copyOf(ciphertext, ciphertext.length); 
-        ECB.ecbProcessBlocks(false, buf, ks); 
-        return Padding.PKCS7(false, buf);
+        if (ciphertext.length == 0)
+            throw new IllegalArgumentException("empty input");
+
+        // the last block alone sizes the output, so the rest decrypts straight into it
+        int full = ciphertext.length - BLOCK;
+        byte[] last = new byte[BLOCK];
+        ecbProcessBlocks(false, ciphertext, full, BLOCK, last, 0, ks);
+        int tail = Padding.unpadPKCS7(last, 0, BLOCK);
+        byte[] out = new byte[full + tail];
+        ecbProcessBlocks(false, ciphertext, 0, full, out, 0, ks);
+        System.arraycopy(last, 0, out, full, tail);
+        return out;
     }
 
     public static byte[] ecbCryptBytes(boolean mode, byte[] in, KeySchedule ks){
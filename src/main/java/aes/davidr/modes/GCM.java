@@ -0,0 +1,293 @@
+package aes.davidr.modes;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.GaloisField;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * AES-GCM (NIST SP 800-38D): CTR encryption with the 32-bit counter and a
+ * GHASH tag over the AAD and ciphertext, 128-bit tags.
+ *
+ * One instance handles one message: updateAAD(), then update() as data
+ * arrives, then doFinal(). Encryption appends the tag in doFinal. Decryption
+ * holds back the last 16 bytes seen (they may be the tag) and hands out
+ * plaintext as it goes, so the output MUST be discarded if doFinal throws.
+ * Never reuse an IV with the same key.
+ *
+ * One IV covers at most MAX_DATA_LENGTH bytes of data ((2^32 - 2) blocks; the
+ * 32-bit counter would wrap past that and reuse keystream, including E(J0)
+ * which masks the tag) and MAX_AAD_LENGTH bytes of AAD. Going over throws
+ * IllegalArgumentException before anything is written.
+ */
+public final class GCM {
+    public static final int TAG_LENGTH = 16;
+    public static final long MAX_DATA_LENGTH = ((1L << 32) - 2) * 16;
+    public static final long MAX_AAD_LENGTH = (1L << 61) - 1; // 2^64 - 1 bits
+    private static final int BLOCK = 16;
+
+    private final boolean mode;
+    private final KeySchedule ks;
+    private final GaloisField.Gf128Table h;
+    private final byte[] j0;
+
+    private final long[] y = new long[2];
+    private final byte[] partial = new byte[BLOCK]; // GHASH input not yet a whole block
+    private int partialLen;
+    private final byte[] held = new byte[TAG_LENGTH]; // decrypt: possible tag bytes
+    private int heldLen;
+    private long aadLen;
+    private long dataLen;
+    private boolean dataStarted;
+    private boolean done;
+
+    /** iv: 12 bytes recommended, any non-empty length accepted. */
+    public GCM(boolean mode, KeySchedule ks, byte[] iv) {
+        if (ks == null || iv == null)
+            throw new IllegalArgumentException("null");
+        if (iv.length == 0)
+            throw new IllegalArgumentException("empty iv");
+        this.mode = mode;
+        this.ks = ks;
+
+        byte[] hb = new byte[BLOCK];
+        BlockEngines.selected().processBlock(AES.ENCRYPT_MODE, hb, ks, 0);
+        this.h = new GaloisField.Gf128Table(longAt(hb, 0), longAt(hb, 8));
+
+        this.j0 = new byte[BLOCK];
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, j0, 0, 12);
+            j0[15] = 1;
+        } else {
+            long[] g = new long[2];
+            int whole = iv.length & ~(BLOCK - 1);
+            h.absorb(g, iv, 0, whole);
+            if (whole < iv.length) {
+                byte[] last = new byte[BLOCK];
+                System.arraycopy(iv, whole, last, 0, iv.length - whole);
+                h.absorb(g, last, 0, BLOCK);
+            }
+            g[1] ^= (long) iv.length * 8;
+            h.multiply(g);
+            putLong(j0, 0, g[0]);
+            putLong(j0, 8, g[1]);
+        }
+    }
+
+    /** Additional authenticated data; only before the first update(). */
+    public void updateAAD(byte[] aad, int off, int len) {
+        checkOpen();
+        if (dataStarted)
+            throw new IllegalStateException("AAD after data");
+        checkRange(aad, off, len);
+        if (len > MAX_AAD_LENGTH - aadLen)
+            throw new IllegalArgumentException("GCM AAD limit (2^61 - 1 bytes) exceeded");
+        ghash(aad, off, len);
+        aadLen += len;
+    }
+
+    /** Bytes update(len) or doFinal(len) can write at most. */
+    public int outputSize(int len, boolean last) {
+        if (mode)
+            return last ? len + TAG_LENGTH : len;
+        int n = heldLen + len - TAG_LENGTH;
+        return Math.max(n, 0);
+    }
+
+    /**
+     * Encrypts or decrypts len bytes of in into out, returns the number of bytes
+     * written. in and out may be the same array at the same offset.
+     */
+    public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        checkOpen();
+        checkRange(in, inOff, len);
+        if (out == null)
+            throw new IllegalArgumentException("null");
+        startData();
+        if (mode) {
+            checkDataLimit(len);
+            crypt(in, inOff, len, out, outOff);
+            return len;
+        }
+
+        int n = heldLen + len - TAG_LENGTH;
+        checkDataLimit(n);
+        if (n <= 0) {
+            System.arraycopy(in, inOff, held, heldLen, len);
+            heldLen += len;
+            return 0;
+        }
+        int fromHeld = Math.min(heldLen, n);
+        if (fromHeld > 0 && in == out && outOff < inOff + len && inOff < outOff + n) {
+            // writing the held bytes first would clobber input not read yet
+            in = Arrays.copyOfRange(in, inOff, inOff + len);
+            inOff = 0;
+        }
+        crypt(held, 0, fromHeld, out, outOff);
+        System.arraycopy(held, fromHeld, held, 0, heldLen - fromHeld);
+        heldLen -= fromHeld;
+        int fromIn = n - fromHeld;
+        crypt(in, inOff, fromIn, out, outOff + fromHeld);
+        System.arraycopy(in, inOff + fromIn, held, heldLen, len - fromIn);
+        heldLen += len - fromIn;
+        return n;
+    }
+
+    /**
+     * Last input, then the tag: appended to out when encrypting, checked when
+     * decrypting (SecurityException on mismatch). Returns bytes written.
+     */
+    public int doFinal(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        int n = update(in, inOff, len, out, outOff);
+        if (!mode && heldLen < TAG_LENGTH)
+            throw new SecurityException("GCM input shorter than the tag");
+        done = true;
+        byte[] tag = tag();
+        if (mode) {
+            System.arraycopy(tag, 0, out, outOff + n, TAG_LENGTH);
+            return n + TAG_LENGTH;
+        }
+        if (!MessageDigest.isEqual(tag, held))
+            throw new SecurityException("GCM tag mismatch (data modified or wrong key)");
+        return n;
+    }
+
+    // ---------------------------------------
+    // - one-shot -
+    // ---------------------------------------
+
+    /** ciphertext || tag. aad may be null. */
+    public static byte[] gcmEncrypt(KeySchedule ks, byte[] iv, byte[] aad, byte[] plaintext) {
+        if (plaintext == null)
+            throw new IllegalArgumentException("null");
+        GCM g = new GCM(AES.ENCRYPT_MODE, ks, iv);
+        if (aad != null)
+            g.updateAAD(aad, 0, aad.length);
+        byte[] out = new byte[plaintext.length + TAG_LENGTH];
+        g.doFinal(plaintext, 0, plaintext.length, out, 0);
+        return out;
+    }
+
+    /** Plaintext of ciphertext || tag; SecurityException if the tag does not verify. */
+    public static byte[] gcmDecrypt(KeySchedule ks, byte[] iv, byte[] aad, byte[] ciphertext) {
+        if (ciphertext == null)
+            throw new IllegalArgumentException("null");
+        if (ciphertext.length < TAG_LENGTH)
+            throw new SecurityException("GCM input shorter than the tag");
+        GCM g = new GCM(AES.DECRYPT_MODE, ks, iv);
+        if (aad != null)
+            g.updateAAD(aad, 0, aad.length);
+        byte[] out = new byte[ciphertext.length - TAG_LENGTH];
+        try {
+            g.doFinal(ciphertext, 0, ciphertext.length, out, 0);
+        } catch (SecurityException e) {
+            Arrays.fill(out, (byte) 0);
+            throw e;
+        }
+        return out;
+    }
+
+    // ---------------------------------------
+    // - internals -
+    // ---------------------------------------
+
+    /** CTR + GHASH over len data bytes, continuing at keystream offset 16 + dataLen. */
+    private void crypt(byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (len == 0)
+            return;
+        checkDataLimit(len);
+        if (!mode)
+            ghash(in, inOff, len);
+        // keystream offset 16 is counter J0 + 1, the first data block
+        CTR.process(CTR.Increment.BE32, j0, BLOCK + dataLen, in, inOff, len, out, outOff, ks);
+        if (mode)
+            ghash(out, outOff, len);
+        dataLen += len;
+    }
+
+    private void checkDataLimit(int len) {
+        if (len > MAX_DATA_LENGTH - dataLen)
+            throw new IllegalArgumentException("GCM data limit ((2^32 - 2) blocks per IV) exceeded");
+    }
+
+    /** Test hook: continue as if len data bytes had already been processed (the tag is then meaningless). */
+    void skipData(long len) {
+        if (len < 0 || len > MAX_DATA_LENGTH - dataLen)
+            throw new IllegalArgumentException("bad range");
+        startData();
+        dataLen += len;
+    }
+
+    private void ghash(byte[] data, int off, int len) {
+        if (partialLen > 0) {
+            int take = Math.min(len, BLOCK - partialLen);
+            System.arraycopy(data, off, partial, partialLen, take);
+            partialLen += take;
+            off += take;
+            len -= take;
+            if (partialLen < BLOCK)
+                return;
+            h.absorb(y, partial, 0, BLOCK);
+            partialLen = 0;
+        }
+        int whole = len & ~(BLOCK - 1);
+        h.absorb(y, data, off, whole);
+        System.arraycopy(data, off + whole, partial, 0, len - whole);
+        partialLen = len - whole;
+    }
+
+    /** Zero-pads a pending GHASH block (the AAD / data boundary and the end). */
+    private void flushPartial() {
+        if (partialLen > 0) {
+            Arrays.fill(partial, partialLen, BLOCK, (byte) 0);
+            h.absorb(y, partial, 0, BLOCK);
+            partialLen = 0;
+        }
+    }
+
+    private void startData() {
+        if (!dataStarted) {
+            flushPartial();
+            dataStarted = true;
+        }
+    }
+
+    private byte[] tag() {
+        flushPartial();
+        y[0] ^= aadLen * 8;
+        y[1] ^= dataLen * 8;
+        h.multiply(y);
+        byte[] tag = j0.clone();
+        BlockEngines.selected().processBlock(AES.ENCRYPT_MODE, tag, ks, 0);
+        putLong(tag, 0, longAt(tag, 0) ^ y[0]);
+        putLong(tag, 8, longAt(tag, 8) ^ y[1]);
+        return tag;
+    }
+
+    private void checkOpen() {
+        if (done)
+            throw new IllegalStateException("GCM instance already finished");
+    }
+
+    private static void checkRange(byte[] b, int off, int len) {
+        if (b == null)
+            throw new IllegalArgumentException("null");
+        if ((off | len) < 0 || off + len > b.length)
+            throw new IllegalArgumentException("bad range");
+    }
+
+    private static long longAt(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--, v >>>= 8)
+            b[off + i] = (byte) v;
+    }
+}
@@ -0,0 +1,159 @@
+package aes.davidr.modes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.GaloisField;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * AES-GCM-SIV (RFC 8452), nonce-misuse-resistant AEAD. The tag is computed
+ * over the plaintext first and then used as the CTR IV, so the same key, nonce,
+ * AAD and plaintext always give the same ciphertext (useful for deduplication)
+ * and a repeated nonce only reveals whether two messages were equal.
+ *
+ * POLYVAL runs on the GHASH tables ({@link GaloisField.Gf128Table}) through the
+ * RFC 8452 appendix A identity: byte-reversed blocks and H multiplied by x.
+ * The bulk encryption is the parallel CTR path with a 32-bit little-endian
+ * counter. Key-generating keys are AES-128 or AES-256; nonces are 12 bytes.
+ */
+public final class GCMSIV {
+    public static final int TAG_LENGTH = 16;
+    public static final int NONCE_LENGTH = 12;
+    private static final int BLOCK = 16;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private GCMSIV() {
+    }
+
+    /** ciphertext || tag. aad may be null. */
+    public static byte[] gcmSivEncrypt(KeySchedule ks, byte[] nonce, byte[] aad, byte[] plaintext) {
+        if (plaintext == null)
+            throw new IllegalArgumentException("null");
+        aad = checkArgs(ks, nonce, aad);
+        byte[][] keys = deriveKeys(ks, nonce);
+        KeySchedule encKey = new KeySchedule(keys[1]);
+
+        byte[] tag = tag(keys[0], encKey, nonce, aad, plaintext, plaintext.length);
+        byte[] out = new byte[plaintext.length + TAG_LENGTH];
+        CTR.process(CTR.Increment.LE32, counter(tag), 0, plaintext, 0, plaintext.length, out, 0, encKey);
+        System.arraycopy(tag, 0, out, plaintext.length, TAG_LENGTH);
+        return out;
+    }
+
+    /** Plaintext of ciphertext || tag; SecurityException if the tag does not verify. */
+    public static byte[] gcmSivDecrypt(KeySchedule ks, byte[] nonce, byte[] aad, byte[] ciphertext) {
+        if (ciphertext == null)
+            throw new IllegalArgumentException("null");
+        aad = checkArgs(ks, nonce, aad);
+        if (ciphertext.length < TAG_LENGTH)
+            throw new SecurityException("GCM-SIV input shorter than the tag");
+        byte[][] keys = deriveKeys(ks, nonce);
+        KeySchedule encKey = new KeySchedule(keys[1]);
+
+        int len = ciphertext.length - TAG_LENGTH;
+        byte[] tag = Arrays.copyOfRange(ciphertext, len, ciphertext.length);
+        byte[] out = new byte[len];
+        CTR.process(CTR.Increment.LE32, counter(tag), 0, ciphertext, 0, len, out, 0, encKey);
+        if (!MessageDigest.isEqual(tag, tag(keys[0], encKey, nonce, aad, out, len))) {
+            Arrays.fill(out, (byte) 0);
+            throw new SecurityException("GCM-SIV tag mismatch (data modified or wrong key)");
+        }
+        return out;
+    }
+
+    // ---------------------------------------
+    // - internals -
+    // ---------------------------------------
+
+    private static byte[] checkArgs(KeySchedule ks, byte[] nonce, byte[] aad) {
+        if (ks == null || nonce == null)
+            throw new IllegalArgumentException("null");
+        if (nonce.length != NONCE_LENGTH)
+            throw new IllegalArgumentException("nonce must be 12 bytes");
+        if (ks.getNr() == 12)
+            throw new IllegalArgumentException("GCM-SIV needs an AES-128 or AES-256 key");
+        return aad == null ? new byte[0] : aad;
+    }
+
+    /** {authKey(16), encKey(16 or 32)}: first halves of E(LE32(i) || nonce). */
+    private static byte[][] deriveKeys(KeySchedule ks, byte[] nonce) {
+        int halves = ks.getNr() == 10 ? 4 : 6;
+        byte[] blocks = new byte[halves * BLOCK];
+        for (int i = 0; i < halves; i++) {
+            blocks[i * BLOCK] = (byte) i;
+            System.arraycopy(nonce, 0, blocks, i * BLOCK + 4, NONCE_LENGTH);
+        }
+        BlockEngines.selected().processBlocks(AES.ENCRYPT_MODE, blocks, ks, 0, blocks.length);
+        byte[] auth = new byte[16];
+        byte[] enc = new byte[(halves - 2) * 8];
+        for (int i = 0; i < halves; i++) {
+            if (i < 2)
+                System.arraycopy(blocks, i * BLOCK, auth, i * 8, 8);
+            else
+                System.arraycopy(blocks, i * BLOCK, enc, (i - 2) * 8, 8);
+        }
+        Arrays.fill(blocks, (byte) 0);
+        return new byte[][] { auth, enc };
+    }
+
+    private static byte[] tag(byte[] authKey, KeySchedule encKey, byte[] nonce, byte[] aad, byte[] pt, int ptLen) {
+        GaloisField.Gf128Table h = polyvalTable(authKey);
+        long[] s = new long[2];
+        polyval(h, s, aad, aad.length);
+        polyval(h, s, pt, ptLen);
+        byte[] lengths = new byte[BLOCK];
+        LONG_LE.set(lengths, 0, (long) aad.length * 8);
+        LONG_LE.set(lengths, 8, (long) ptLen * 8);
+        polyval(h, s, lengths, BLOCK);
+
+        // back to POLYVAL byte order, then S ^ nonce with the top bit cleared
+        byte[] tag = new byte[BLOCK];
+        LONG_LE.set(tag, 0, s[1]);
+        LONG_LE.set(tag, 8, s[0]);
+        for (int i = 0; i < NONCE_LENGTH; i++)
+            tag[i] ^= nonce[i];
+        tag[15] &= 0x7f;
+        BlockEngines.selected().processBlock(AES.ENCRYPT_MODE, tag, encKey, 0);
+        return tag;
+    }
+
+    /** GHASH table for mulX_GHASH(ByteReverse(H)). */
+    private static GaloisField.Gf128Table polyvalTable(byte[] h) {
+        long hi = (long) LONG_LE.get(h, 8);
+        long lo = (long) LONG_LE.get(h, 0);
+        long carry = lo & 1;
+        lo = (lo >>> 1) | (hi << 63);
+        hi = (hi >>> 1) ^ (carry * 0xe100000000000000L);
+        return new GaloisField.Gf128Table(hi, lo);
+    }
+
+    /** POLYVAL over data[0, len), the last partial block zero-padded. */
+    private static void polyval(GaloisField.Gf128Table h, long[] s, byte[] data, int len) {
+        int whole = len & ~(BLOCK - 1);
+        for (int p = 0; p < whole; p += BLOCK) {
+            // ByteReverse(block) as big-endian {hi, lo}
+            s[0] ^= (long) LONG_LE.get(data, p + 8);
+            s[1] ^= (long) LONG_LE.get(data, p);
+            h.multiply(s);
+        }
+        if (whole < len) {
+            byte[] last = new byte[BLOCK];
+            System.arraycopy(data, whole, last, 0, len - whole);
+            polyval(h, s, last, BLOCK);
+        }
+    }
+
+    private static byte[] counter(byte[] tag) {
+        byte[] c = tag.clone();
+        c[15] |= (byte) 0x80;
+        return c;
+    }
+}
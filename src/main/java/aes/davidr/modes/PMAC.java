@@ -0,0 +1,177 @@
+package aes.davidr.modes;
+
+import java.util.Arrays;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * PMAC1 (Rogaway), a parallelizable block-cipher MAC with 16-byte tags.
+ *
+ * Every block except the last is encrypted independently under its own
+ * offset, Sigma = XOR of E(M[i] ^ offset(i)), and the tag is one more block
+ * encryption of Sigma. offset(i) = gray(i) * L with L = E(0), so it can be
+ * computed directly for any i: large inputs are split across cores by
+ * {@link Parallel} and each piece starts at its own offset.
+ *
+ * update() may be called any number of times; doFinal() returns the tag and
+ * resets the instance for the next message under the same key.
+ */
+public final class PMAC {
+    public static final int TAG_LENGTH = 16;
+    private static final int BLOCK = 16;
+    private static final int BATCH = 4096; // bytes per engine call
+
+    private final KeySchedule ks;
+    private final BlockEngine engine = BlockEngines.selected();
+    private final long[] lHi = new long[64]; // L(j) = L * x^j
+    private final long[] lLo = new long[64];
+    private final long lInvHi; // L(-1) = L * x^-1
+    private final long lInvLo;
+
+    private final long[] sigma = new long[2];
+    private final byte[] last = new byte[BLOCK]; // held back: it may be the final block
+    private int lastLen;
+    private long blocks; // blocks already in sigma
+
+    public PMAC(KeySchedule ks) {
+        if (ks == null)
+            throw new IllegalArgumentException("null");
+        this.ks = ks;
+        byte[] l = new byte[BLOCK];
+        engine.processBlock(AES.ENCRYPT_MODE, l, ks, 0);
+        long hi = longAt(l, 0);
+        long lo = longAt(l, 8);
+        for (int j = 0; j < 64; j++) {
+            lHi[j] = hi;
+            lLo[j] = lo;
+            long carry = hi >> 63;
+            hi = (hi << 1) | (lo >>> 63);
+            lo = (lo << 1) ^ (carry & 0x87);
+        }
+        long odd = -(lLo[0] & 1);
+        lInvLo = ((lLo[0] ^ (odd & 0x87)) >>> 1) | (lHi[0] << 63);
+        lInvHi = (lHi[0] >>> 1) ^ (odd & 0x8000000000000000L);
+    }
+
+    /** One-shot tag of data. */
+    public static byte[] pmac(KeySchedule ks, byte[] data) {
+        if (data == null)
+            throw new IllegalArgumentException("null");
+        PMAC m = new PMAC(ks);
+        m.update(data, 0, data.length);
+        return m.doFinal();
+    }
+
+    public void update(byte[] in, int off, int len) {
+        if (in == null)
+            throw new IllegalArgumentException("null");
+        if ((off | len) < 0 || off + len > in.length)
+            throw new IllegalArgumentException("bad range");
+        if (len == 0)
+            return;
+        if (lastLen > 0) {
+            int take = Math.min(len, BLOCK - lastLen);
+            System.arraycopy(in, off, last, lastLen, take);
+            lastLen += take;
+            off += take;
+            len -= take;
+            if (len == 0)
+                return;
+            // more data follows, so the held block is not the last one
+            absorb(last, 0, BLOCK);
+            lastLen = 0;
+        }
+        // keep 1..16 bytes back for doFinal
+        int bulk = (len - 1) & ~(BLOCK - 1);
+        absorb(in, off, bulk);
+        lastLen = len - bulk;
+        System.arraycopy(in, off + bulk, last, 0, lastLen);
+    }
+
+    public byte[] doFinal() {
+        long hi = sigma[0];
+        long lo = sigma[1];
+        if (lastLen == BLOCK) {
+            hi ^= longAt(last, 0) ^ lInvHi;
+            lo ^= longAt(last, 8) ^ lInvLo;
+        } else {
+            last[lastLen] = (byte) 0x80;
+            Arrays.fill(last, lastLen + 1, BLOCK, (byte) 0);
+            hi ^= longAt(last, 0);
+            lo ^= longAt(last, 8);
+        }
+        byte[] tag = new byte[BLOCK];
+        putLong(tag, 0, hi);
+        putLong(tag, 8, lo);
+        engine.processBlock(AES.ENCRYPT_MODE, tag, ks, 0);
+
+        sigma[0] = 0;
+        sigma[1] = 0;
+        lastLen = 0;
+        blocks = 0;
+        return tag;
+    }
+
+    /** len (multiple of 16) bytes of non-final blocks, numbered from blocks + 1. */
+    private void absorb(byte[] in, int off, int len) {
+        long first = blocks + 1;
+        Parallel.forRange(len, (from, to) -> {
+            long[] s = piece(in, off + (int) from, (int) (to - from), first + from / BLOCK);
+            synchronized (sigma) {
+                sigma[0] ^= s[0];
+                sigma[1] ^= s[1];
+            }
+        });
+        blocks += len / BLOCK;
+    }
+
+    /** XOR of E(M[i] ^ offset(i)) over the blocks of one piece, the first one numbered i. */
+    private long[] piece(byte[] in, int off, int len, long i) {
+        // offset(i - 1) = gray(i - 1) * L, then one L(ntz) step per block
+        long g = (i - 1) ^ ((i - 1) >>> 1);
+        long oHi = 0;
+        long oLo = 0;
+        for (int j = 0; g != 0; j++, g >>>= 1) {
+            if ((g & 1) != 0) {
+                oHi ^= lHi[j];
+                oLo ^= lLo[j];
+            }
+        }
+
+        byte[] work = new byte[Math.min(BATCH, len)];
+        long sHi = 0;
+        long sLo = 0;
+        for (int done = 0; done < len;) {
+            int n = Math.min(work.length, len - done);
+            for (int p = 0; p < n; p += BLOCK, i++) {
+                int z = Long.numberOfTrailingZeros(i);
+                oHi ^= lHi[z];
+                oLo ^= lLo[z];
+                putLong(work, p, longAt(in, off + done + p) ^ oHi);
+                putLong(work, p + 8, longAt(in, off + done + p + 8) ^ oLo);
+            }
+            engine.processBlocks(AES.ENCRYPT_MODE, work, ks, 0, n);
+            for (int p = 0; p < n; p += BLOCK) {
+                sHi ^= longAt(work, p);
+                sLo ^= longAt(work, p + 8);
+            }
+            done += n;
+        }
+        return new long[] { sHi, sLo };
+    }
+
+    private static long longAt(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--, v >>>= 8)
+            b[off + i] = (byte) v;
+    }
+}
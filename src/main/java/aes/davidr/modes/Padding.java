@@ -1,6 +1,9 @@
 package aes.davidr.modes;
 
+import java.util.Arrays;
+
 public class Padding {
+    private static final int BLOCK = 16;
 
     public static byte[] PKCS7(boolean mode, byte[] data){
         return mode ? padPKCS7(data) : unpadPKCS7(data);
@@ -10,35 +13,59 @@ public class Padding {
         if (data == null) {
             throw new NullPointerException("no PKCS#7 padding input");
         }
-        int blockSize = 16;
-        int padLen = blockSize - (data.length % blockSize);
-
-        byte[] padded = new byte[data.length + padLen];
-        // copy original bytes
-        for (int i = 0; i < data.length; i++) {
-            padded[i] = data[i];
-        }
-        // add padding bytes
-        for (int i = data.length; i < padded.length; i++) {
-            padded[i] = (byte) padLen;
-        }
+        byte[] padded = new byte[data.length + BLOCK - (data.length % BLOCK)];
+        System.arraycopy(data, 0, padded, 0, data.length);
+        padPKCS7(padded, 0, data.length);
         return padded;
     }
 
     public static byte[] unpadPKCS7(byte[] data) {
         if (data == null) throw new NullPointerException("data is missing");
         if(data.length == 0)throw new IllegalArgumentException("empty input");
-        int padLen = data[data.length - 1] & 0xFF;
-        for (int i = 1; i < padLen + 1; i++) {
-            if ((data[data.length - i] & 0xFF) != padLen)
-                throw new IllegalArgumentException("Bad PKCS#7 padding");
-        }
-        byte[] unpadded = new byte[data.length - padLen];
-        for (int i = 0; i < unpadded.length; i++) {
-            unpadded[i] = data[i];
-        }
+        byte[] unpadded = new byte[unpadPKCS7(data, 0, data.length)];
+        System.arraycopy(data, 0, unpadded, 0, unpadded.length);
         return unpadded;
+    }
 
+    /**
+     * In place: writes the padding for buf[off, off + len) into the bytes after
+     * it and returns the padded length. buf must have room for it (up to 16 bytes).
+     */
+    public static int padPKCS7(byte[] buf, int off, int len) {
+        if (buf == null)
+            throw new IllegalArgumentException("null");
+        int padLen = BLOCK - (len % BLOCK);
+        if ((off | len) < 0 || off + len + padLen > buf.length)
+            throw new IllegalArgumentException("bad range");
+        Arrays.fill(buf, off + len, off + len + padLen, (byte) padLen);
+        return len + padLen;
+    }
+
+    /**
+     * Checks the padding at the end of buf[off, off + len) and returns the
+     * unpadded length; nothing is copied. The check looks at the same bytes
+     * whatever the pad value, so its timing does not reveal where it failed.
+     */
+    public static int unpadPKCS7(byte[] buf, int off, int len) {
+        if (buf == null)
+            throw new IllegalArgumentException("null");
+        if ((off | len) < 0 || off + len > buf.length)
+            throw new IllegalArgumentException("bad range");
+        if (len == 0)
+            throw new IllegalArgumentException("empty input");
+        int end = off + len;
+        int window = Math.min(BLOCK, len);
+        int padLen = buf[end - 1] & 0xFF;
+        // bad: padLen == 0 or padLen > window
+        int bad = (padLen - 1) >>> 31 | (window - padLen) >>> 31;
+        for (int i = 1; i <= window; i++) {
+            int inPad = (padLen - i) >>> 31 ^ 1; // i <= padLen
+            int diff = (buf[end - i] & 0xFF) ^ padLen;
+            bad |= inPad & ((diff + 0xFF) >>> 8);
+        }
+        if (bad != 0)
+            throw new IllegalArgumentException("Bad PKCS#7 padding");
+        return len - padLen;
     }
 
 }
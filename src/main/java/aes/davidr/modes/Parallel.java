@@ -0,0 +1,128 @@
+package aes.davidr.modes;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join splitting shared by the modes and file formats. Work runs on the
+ * common ForkJoinPool, so nested calls (a parallel file format calling a
+ * parallel mode) share one set of threads instead of stacking pools.
+ *
+ * A job of len bytes runs serially below the threshold or on a single-core
+ * pool. Above it the range is halved recursively down to pieces of about
+ * len / (4 * parallelism), never smaller than the grain, so idle workers have
+ * something to steal without paying fork overhead on tiny tasks.
+ *
+ * -Daes.davidr.parallel.threshold=BYTES and -Daes.davidr.parallel.grain=BYTES
+ * override the defaults; a threshold of -1 disables parallelism.
+ */
+public final class Parallel {
+    public static final String THRESHOLD_PROPERTY = "aes.davidr.parallel.threshold";
+    public static final String GRAIN_PROPERTY = "aes.davidr.parallel.grain";
+
+    // a 128 KB piece is a few hundred microseconds of AES on any engine, far above
+    // the cost of a fork; below 512 KB a whole job finishes before the pool wakes up
+    private static final long THRESHOLD = Long.getLong(THRESHOLD_PROPERTY, 512 * 1024);
+    private static final long GRAIN = Math.max(16, Long.getLong(GRAIN_PROPERTY, 128 * 1024) & ~15L);
+    private static final int TASKS_PER_WORKER = 4;
+
+    /** Processes [from, to) of a larger job; ranges handed out are block aligned. */
+    @FunctionalInterface
+    public interface RangeTask {
+        void run(long from, long to);
+    }
+
+    private Parallel() {
+    }
+
+    public static int parallelism() {
+        return ForkJoinPool.commonPool().getParallelism();
+    }
+
+    /** Whether a job of len bytes would be split. */
+    public static boolean worthSplitting(long len) {
+        return THRESHOLD >= 0 && len >= THRESHOLD && parallelism() > 1;
+    }
+
+    /**
+     * Runs task over [0, len) in 16-byte aligned pieces, in parallel when the job
+     * is large enough, and returns when every piece is done. A RuntimeException
+     * or Error from any piece is rethrown here, also only once every other
+     * piece has finished.
+     */
+    public static void forRange(long len, RangeTask task) {
+        forRange(len, 16, task);
+    }
+
+    /** As {@link #forRange(long, RangeTask)} with pieces aligned to unit bytes. */
+    public static void forRange(long len, long unit, RangeTask task) {
+        if (len <= 0)
+            return;
+        if (!worthSplitting(len)) {
+            task.run(0, len);
+            return;
+        }
+        long piece = Math.max(GRAIN, len / ((long) parallelism() * TASKS_PER_WORKER));
+        split(len, unit, Math.max(unit, piece - piece % unit), task);
+    }
+
+    /** Always forks down to pieces of at most piece bytes (rounded up to unit). */
+    static void split(long len, long unit, long piece, RangeTask task) {
+        Split root = new Split(task, 0, len, piece, unit);
+        if (ForkJoinTask.inForkJoinPool())
+            root.invoke();
+        else
+            ForkJoinPool.commonPool().invoke(root);
+    }
+
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RangeTask task;
+        private final long from;
+        private final long to;
+        private final long piece;
+        private final long unit;
+
+        Split(RangeTask task, long from, long to, long piece, long unit) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.piece = piece;
+            this.unit = unit;
+        }
+
+        @Override
+        protected void compute() {
+            long n = to - from;
+            if (n <= piece) {
+                task.run(from, to);
+                return;
+            }
+            long half = n / 2;
+            long mid = from + Math.max(unit, half - half % unit);
+            // not invokeAll: on a failure it rethrows without waiting for the other half
+            Split right = new Split(task, mid, to, piece, unit);
+            right.fork();
+            Throwable failure = null;
+            try {
+                new Split(task, from, mid, piece, unit).compute();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            try {
+                right.join();
+            } catch (Throwable t) {
+                if (failure == null)
+                    failure = t;
+                else
+                    failure.addSuppressed(t);
+            }
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure != null)
+                throw (Error) failure;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package aes.davidr.modes;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+/**
+ * XTS-AES (IEEE 1619 / NIST SP 800-38E) for sector and page encryption: every
+ * sector is encrypted on its own under a tweak derived from its number, so any
+ * sector can be rewritten independently and the ciphertext is exactly as long
+ * as the plaintext (ciphertext stealing for lengths that are not a multiple of
+ * 16, minimum 16 bytes).
+ *
+ * dataKey encrypts the data, tweakKey encrypts the sector number; they must
+ * be different keys (equal ones are rejected). The tweak of block j+1 is the tweak of block j times
+ * alpha, a 128-bit little-endian shift with a conditional XOR of 0x87.
+ */
+public final class XTS {
+    private static final int BLOCK = 16;
+    private static final int BATCH = 4096; // bytes per engine call
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private XTS() {
+    }
+
+    /** One sector of len bytes (len >= 16) from in[inOff] to out[outOff]; same offset in place is fine. */
+    public static void xtsProcess(boolean mode, KeySchedule dataKey, KeySchedule tweakKey, long sector, byte[] in,
+            int inOff, int len, byte[] out, int outOff) {
+        check(dataKey, tweakKey, in, inOff, len, out, outOff);
+        if (len < BLOCK)
+            throw new IllegalArgumentException("XTS needs at least 16 bytes");
+        sector(mode, dataKey, tweakKey, sector, in, inOff, len, out, outOff, BlockEngines.selected(),
+                new byte[Math.min(BATCH, len)], new byte[Math.min(BATCH, len)]);
+    }
+
+    /**
+     * Batch of sectors.length sectors of sectorSize bytes each, stored back to back
+     * from in[inOff]; sector k uses number sectors[k]. Sectors are spread across
+     * cores (see {@link Parallel}).
+     */
+    public static void xtsProcessSectors(boolean mode, KeySchedule dataKey, KeySchedule tweakKey, long[] sectors,
+            int sectorSize, byte[] in, int inOff, byte[] out, int outOff) {
+        if (sectors == null)
+            throw new IllegalArgumentException("null");
+        if (sectorSize < BLOCK)
+            throw new IllegalArgumentException("XTS needs at least 16 bytes");
+        long total = (long) sectors.length * sectorSize;
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("bad range");
+        check(dataKey, tweakKey, in, inOff, (int) total, out, outOff);
+
+        BlockEngine engine = BlockEngines.selected();
+        Parallel.forRange(total, sectorSize, (from, to) -> {
+            byte[] tweaks = new byte[Math.min(BATCH, sectorSize)];
+            byte[] work = new byte[tweaks.length];
+            for (int k = (int) (from / sectorSize); k < to / sectorSize; k++) {
+                int off = k * sectorSize;
+                sector(mode, dataKey, tweakKey, sectors[k], in, inOff + off, sectorSize, out, outOff + off, engine,
+                        tweaks, work);
+            }
+        });
+    }
+
+    /** Consecutive sectors firstSector, firstSector + 1, ... over len bytes (multiple of sectorSize). */
+    public static void xtsProcessSectors(boolean mode, KeySchedule dataKey, KeySchedule tweakKey, long firstSector,
+            int sectorSize, byte[] in, int inOff, int len, byte[] out, int outOff) {
+        if (sectorSize < BLOCK)
+            throw new IllegalArgumentException("XTS needs at least 16 bytes");
+        if (len < 0 || len % sectorSize != 0)
+            throw new IllegalArgumentException("len must be multiple of sectorSize");
+        long[] sectors = new long[len / sectorSize];
+        for (int k = 0; k < sectors.length; k++)
+            sectors[k] = firstSector + k;
+        xtsProcessSectors(mode, dataKey, tweakKey, sectors, sectorSize, in, inOff, out, outOff);
+    }
+
+    private static void sector(boolean mode, KeySchedule dataKey, KeySchedule tweakKey, long sector, byte[] in,
+            int inOff, int len, byte[] out, int outOff, BlockEngine engine, byte[] tweaks, byte[] work) {
+        byte[] t = new byte[BLOCK];
+        LONG_LE.set(t, 0, sector);
+        engine.processBlock(AES.ENCRYPT_MODE, t, tweakKey, 0);
+        long lo = (long) LONG_LE.get(t, 0);
+        long hi = (long) LONG_LE.get(t, 8);
+
+        int rem = len & (BLOCK - 1);
+        int plain = rem == 0 ? len : len - rem - BLOCK; // blocks before the stealing pair
+        for (int done = 0; done < plain;) {
+            int n = Math.min(tweaks.length, plain - done);
+            for (int p = 0; p < n; p += BLOCK) {
+                LONG_LE.set(tweaks, p, lo);
+                LONG_LE.set(tweaks, p + 8, hi);
+                long carry = hi >> 63;
+                hi = (hi << 1) | (lo >>> 63);
+                lo = (lo << 1) ^ (carry & 0x87);
+            }
+            for (int i = 0; i < n; i++)
+                work[i] = (byte) (in[inOff + done + i] ^ tweaks[i]);
+            engine.processBlocks(mode, work, dataKey, 0, n);
+            for (int i = 0; i < n; i++)
+                out[outOff + done + i] = (byte) (work[i] ^ tweaks[i]);
+            done += n;
+        }
+        if (rem == 0)
+            return;
+
+        // ciphertext stealing over the last full block (tweak m-1) and the partial one (tweak m)
+        long lo1 = lo;
+        long hi1 = hi;
+        long carry = hi >> 63;
+        long hi2 = (hi << 1) | (lo >>> 63);
+        long lo2 = (lo << 1) ^ (carry & 0x87);
+        int last = inOff + plain;
+        byte[] b = new byte[BLOCK];
+        System.arraycopy(in, last, b, 0, BLOCK);
+        byte[] tail = new byte[rem];
+        System.arraycopy(in, last + BLOCK, tail, 0, rem);
+
+        // encrypt: CC = E(P[m-1], T[m-1]); decrypt: PP = D(C[m-1], T[m])
+        oneBlock(mode, b, mode ? lo1 : lo2, mode ? hi1 : hi2, dataKey, engine);
+        System.arraycopy(b, 0, out, outOff + plain + BLOCK, rem);
+        System.arraycopy(tail, 0, b, 0, rem);
+        oneBlock(mode, b, mode ? lo2 : lo1, mode ? hi2 : hi1, dataKey, engine);
+        System.arraycopy(b, 0, out, outOff + plain, BLOCK);
+    }
+
+    private static void oneBlock(boolean mode, byte[] b, long lo, long hi, KeySchedule ks, BlockEngine engine) {
+        LONG_LE.set(b, 0, (long) LONG_LE.get(b, 0) ^ lo);
+        LONG_LE.set(b, 8, (long) LONG_LE.get(b, 8) ^ hi);
+        engine.processBlock(mode, b, ks, 0);
+        LONG_LE.set(b, 0, (long) LONG_LE.get(b, 0) ^ lo);
+        LONG_LE.set(b, 8, (long) LONG_LE.get(b, 8) ^ hi);
+    }
+
+    private static void check(KeySchedule dataKey, KeySchedule tweakKey, byte[] in, int inOff, int len, byte[] out,
+            int outOff) {
+        if (dataKey == null || tweakKey == null || in == null || out == null)
+            throw new IllegalArgumentException("null");
+        if (dataKey == tweakKey || dataKey.sameKey(tweakKey))
+            throw new IllegalArgumentException("dataKey and tweakKey must differ");
+        if ((inOff | outOff | len) < 0 || inOff + len > in.length || outOff + len > out.length)
+            throw new IllegalArgumentException("bad range");
+    }
+}
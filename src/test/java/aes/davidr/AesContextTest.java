@@ -0,0 +1,145 @@
+package aes.davidr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.CBC;
+import aes.davidr.modes.CTR;
+import aes.davidr.modes.ECB;
+
+class AesContextTest {
+
+    @Test
+    void chunkedUpdates_matchOneShot() {
+        Random rnd = new Random(18);
+        byte[] key = new byte[32];
+        byte[] iv = new byte[16];
+        rnd.nextBytes(key);
+        rnd.nextBytes(iv);
+        KeySchedule ks = new KeySchedule(key);
+        for (AesContext.Mode mode : AesContext.Mode.values()) {
+            AesContext enc = new AesContext(mode);
+            AesContext dec = new AesContext(mode);
+            enc.init(true, ks, iv);
+            dec.init(false, ks, iv);
+            for (int n : new int[] { 0, 1, 15, 16, 17, 100, 4099 }) {
+                byte[] pt = new byte[n];
+                rnd.nextBytes(pt);
+                byte[] expected = switch (mode) {
+                    case ECB -> ECB.ecbCryptBytes(true, pt, ks);
+                    case CBC -> CBC.cbcEncrypt(iv, pt, ks);
+                    case CTR -> CTR.ctrCryptBytes(iv, pt, ks);
+                };
+                byte[] ct = chunked(enc, pt, rnd);
+                assertArrayEquals(expected, ct, mode + " " + n);
+                assertArrayEquals(pt, chunked(dec, ct, rnd), mode + " " + n);
+                // the instance is reusable after doFinal
+                assertArrayEquals(expected, enc.doFinal(pt), mode + " " + n);
+            }
+        }
+    }
+
+    @Test
+    void overlappingInOut_anyShift_matchesOneShot() {
+        Random rnd = new Random(181);
+        byte[] iv = new byte[16];
+        rnd.nextBytes(iv);
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        for (AesContext.Mode mode : AesContext.Mode.values()) {
+            AesContext enc = new AesContext(mode);
+            AesContext dec = new AesContext(mode);
+            enc.init(true, ks, iv);
+            dec.init(false, ks, iv);
+            for (int n : new int[] { 5, 48, 9001 }) {
+                byte[] pt = new byte[n];
+                rnd.nextBytes(pt);
+                byte[] ct = enc.doFinal(pt);
+                // output behind or level with the input: stream through one array in pieces
+                for (int shift : new int[] { -33, -16, -5, 0 }) {
+                    for (int maxChunk : new int[] { 40, 6000 }) {
+                        assertArrayEquals(ct, shifted(enc, pt, shift, maxChunk, rnd), mode + " " + n + " " + shift);
+                        assertArrayEquals(pt, shifted(dec, ct, shift, maxChunk, rnd), mode + " " + n + " " + shift);
+                    }
+                }
+                // output ahead of the input: one call, later input would be overwritten by the caller
+                for (int shift : new int[] { 1, 5, 16, 17, 40 }) {
+                    assertArrayEquals(ct, shifted(enc, pt, shift, Integer.MAX_VALUE, rnd), mode + " " + n + " " + shift);
+                    assertArrayEquals(pt, shifted(dec, ct, shift, Integer.MAX_VALUE, rnd), mode + " " + n + " " + shift);
+                }
+            }
+        }
+    }
+
+    @Test
+    void inPlace_andRekey() {
+        byte[] key = hex("000102030405060708090a0b0c0d0e0f");
+        byte[] pt = hex("00112233445566778899aabbccddeeff");
+        AesContext ctx = new AesContext(AesContext.Mode.ECB);
+        ctx.init(true, key, null);
+        byte[] buf = Arrays.copyOf(pt, 48);
+        int n = ctx.update(buf, 0, 7, buf, 0);
+        n += ctx.doFinal(buf, 7, 9, buf, n);
+        assertEquals(32, n);
+        assertArrayEquals(hex("69c4e0d86a7b0430d8cdb78070b4c55a"), Arrays.copyOf(buf, 16));
+
+        ctx.init(false, key, null);
+        assertArrayEquals(pt, ctx.doFinal(Arrays.copyOf(buf, 32)));
+        ctx.init(false, new byte[16], null);
+        assertThrows(IllegalArgumentException.class, () -> ctx.doFinal(Arrays.copyOf(buf, 32)));
+    }
+
+    @Test
+    void badInput() {
+        AesContext ctx = new AesContext(AesContext.Mode.CBC);
+        assertThrows(IllegalStateException.class, () -> ctx.doFinal(new byte[16]));
+        assertThrows(IllegalArgumentException.class, () -> ctx.init(true, new KeySchedule(new byte[16]), null));
+        ctx.init(false, new KeySchedule(new byte[16]), new byte[16]);
+        assertThrows(IllegalArgumentException.class, () -> ctx.doFinal(new byte[20]));
+        assertThrows(IllegalArgumentException.class, () -> ctx.update(new byte[4], 2, 4, new byte[16], 0));
+    }
+
+    private static byte[] chunked(AesContext ctx, byte[] in, Random rnd) {
+        byte[] out = new byte[in.length + 16];
+        int inPos = 0;
+        int outPos = 0;
+        while (inPos < in.length) {
+            int len = Math.min(in.length - inPos, rnd.nextInt(40));
+            outPos += ctx.update(in, inPos, len, out, outPos);
+            inPos += len;
+        }
+        outPos += ctx.doFinal(in, inPos, 0, out, outPos);
+        return Arrays.copyOf(out, outPos);
+    }
+
+    /** in placed at base in one array, output written at base + shift as it comes. */
+    private static byte[] shifted(AesContext ctx, byte[] in, int shift, int maxChunk, Random rnd) {
+        int base = 64;
+        byte[] buf = new byte[base + in.length + base + 16];
+        System.arraycopy(in, 0, buf, base, in.length);
+        int inPos = 0;
+        int outPos = 0;
+        if (maxChunk == Integer.MAX_VALUE) {
+            outPos += ctx.update(buf, base, in.length, buf, base + shift);
+            inPos = in.length;
+        }
+        while (inPos < in.length) {
+            int len = Math.min(in.length - inPos, rnd.nextInt(maxChunk));
+            outPos += ctx.update(buf, base + inPos, len, buf, base + shift + outPos);
+            inPos += len;
+        }
+        outPos += ctx.doFinal(buf, base + inPos, 0, buf, base + shift + outPos);
+        return Arrays.copyOfRange(buf, base + shift, base + shift + outPos);
+    }
+
+    private static byte[] hex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
+}
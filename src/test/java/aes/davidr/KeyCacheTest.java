@@ -0,0 +1,104 @@
+package aes.davidr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.BlockEngine;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+import aes.davidr.modes.ECB;
+
+class KeyCacheTest {
+
+    @Test
+    void hitsMatchFreshSchedules() {
+        KeyCache cache = new KeyCache(4);
+        byte[] key = "passphrase".getBytes(StandardCharsets.UTF_8);
+        byte[] pt = new byte[48];
+        for (int mode : new int[] { KeySchedule.AES_128, KeySchedule.AES_192, KeySchedule.AES_256 }) {
+            byte[] expected = ECB.ecbCryptBytes(true, pt, new KeySchedule(key, mode));
+            for (int i = 0; i < 3; i++) {
+                try (KeyCache.Lease lease = cache.acquire(key, mode)) {
+                    assertArrayEquals(expected, ECB.ecbCryptBytes(true, pt, lease.schedule()));
+                }
+            }
+        }
+        assertEquals(3, cache.misses());
+        assertEquals(6, cache.hits());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void evictionWipesOnlyUnleasedSchedules() {
+        KeyCache cache = new KeyCache(1);
+        KeyCache.Lease a = cache.acquire(new byte[] { 1 }, KeySchedule.AES_128);
+        KeySchedule held = a.schedule();
+        byte[] before = held.roundKey(10).clone();
+
+        try (KeyCache.Lease b = cache.acquire(new byte[] { 2 }, KeySchedule.AES_128)) {
+            assertEquals(1, cache.size());
+            // evicted but still leased: intact until released
+            assertArrayEquals(before, held.roundKey(10));
+        }
+        a.close();
+        assertArrayEquals(new byte[16], held.roundKey(10));
+
+        KeyCache.Lease c = cache.acquire(new byte[] { 2 }, KeySchedule.AES_128);
+        KeySchedule second = c.schedule();
+        c.close();
+        assertEquals(1, cache.hits());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[16], second.roundKey(0));
+    }
+
+    @Test
+    void disabledCacheStillWorks() {
+        KeyCache cache = new KeyCache(0);
+        byte[] key = { 7, 7 };
+        KeySchedule ks;
+        try (KeyCache.Lease lease = cache.acquire(key, KeySchedule.AES_256)) {
+            ks = lease.schedule();
+            assertArrayEquals(new KeySchedule(key, KeySchedule.AES_256).roundKey(14), ks.roundKey(14));
+        }
+        assertArrayEquals(new byte[16], ks.roundKey(14));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.misses());
+        assertThrows(IllegalArgumentException.class, () -> cache.acquire(key, 20));
+    }
+
+    @Test
+    void aesCipherUsesCache() {
+        long misses = AesCipher.keyCacheMisses();
+        long hits = AesCipher.keyCacheHits();
+        byte[] pt = "hello".getBytes(StandardCharsets.UTF_8);
+        byte[] ct = AesCipher.cryptBytes(true, pt, "key-cache-test", AesCipher.AES_256);
+        assertArrayEquals(pt, AesCipher.cryptBytes(false, ct, "key-cache-test", AesCipher.AES_256));
+        assertEquals(misses + 1, AesCipher.keyCacheMisses());
+        assertEquals(hits + 1, AesCipher.keyCacheHits());
+    }
+
+    @Test
+    void evictedSchedule_unusableOnJce() {
+        BlockEngine jce = BlockEngines.byName("jce"); // the JDK always ships SunJCE AES
+        KeyCache cache = new KeyCache(1);
+        byte[] block = new byte[16];
+        KeySchedule held;
+        try (KeyCache.Lease a = cache.acquire(new byte[] { 1 }, KeySchedule.AES_128)) {
+            held = a.schedule();
+            jce.processBlocks(true, block, held, 0, 16); // keys this thread's Ciphers
+            jce.processBlocks(false, block, held, 0, 16);
+        }
+        assertArrayEquals(new byte[16], block);
+        assertFalse(held.isDestroyed());
+
+        cache.acquire(new byte[] { 2 }, KeySchedule.AES_128).close(); // evicts the first
+        assertTrue(held.isDestroyed());
+        assertThrows(IllegalStateException.class, () -> jce.processBlocks(true, block, held, 0, 16));
+        assertThrows(IllegalStateException.class, () -> jce.processBlock(false, block, held, 0));
+        assertArrayEquals(new byte[16], block);
+    }
+}
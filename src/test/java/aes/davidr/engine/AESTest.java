@@ -20,6 +20,17 @@ class AESTest {
         assertArrayEquals(pt, AES.blockRun(false, exp.clone(), ks), "Decrypt KAT mismatch");
     }
 
+    @Test
+    void fips197_aes128_inOut_leavesInputUntouched() {
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090A0B0C0D0E0F"));
+        byte[] in = hex("FF00112233445566778899AABBCCDDEEFF");
+        byte[] out = new byte[20];
+
+        AES.blockRun(true, in, 1, out, 3, ks);
+        assertArrayEquals(hex("69C4E0D86A7B0430D8CDB78070B4C55A"), java.util.Arrays.copyOfRange(out, 3, 19));
+        assertArrayEquals(hex("FF00112233445566778899AABBCCDDEEFF"), in);
+    }
+
     private static byte[] hex(String s) {
         s = s.replaceAll("\\s+", "");
         if ((s.length() & 1) != 0)
@@ -0,0 +1,63 @@
+package aes.davidr.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BitslicedAESTest {
+
+    @Test
+    void fips197_aes128_knownVector_inEveryLane() {
+        byte[] key = hex("000102030405060708090A0B0C0D0E0F");
+        byte[] pt = hex("00112233445566778899AABBCCDDEEFF");
+        byte[] ct = hex("69C4E0D86A7B0430D8CDB78070B4C55A");
+        KeySchedule ks = new KeySchedule(key);
+
+        byte[] buf = new byte[16 * BitslicedAES.BLOCKS];
+        for (int b = 0; b < BitslicedAES.BLOCKS; b++)
+            System.arraycopy(pt, 0, buf, 16 * b, 16);
+
+        BitslicedAES.processBlocks(AES.ENCRYPT_MODE, buf, ks, 0, buf.length);
+        for (int b = 0; b < BitslicedAES.BLOCKS; b++)
+            assertArrayEquals(ct, java.util.Arrays.copyOfRange(buf, 16 * b, 16 * b + 16), "lane " + b);
+
+        BitslicedAES.processBlocks(AES.DECRYPT_MODE, buf, ks, 0, buf.length);
+        for (int b = 0; b < BitslicedAES.BLOCKS; b++)
+            assertArrayEquals(pt, java.util.Arrays.copyOfRange(buf, 16 * b, 16 * b + 16), "lane " + b);
+    }
+
+    @Test
+    void matchesReferenceEngine_fullAndPartialGroups() {
+        Random rnd = new Random(3);
+        for (int keyLen : new int[] { 16, 24, 32 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+
+            for (int blocks : new int[] { 1, 7, 8, 13, 24 }) {
+                byte[] buf = new byte[5 + 16 * blocks];
+                rnd.nextBytes(buf);
+                byte[] ref = buf.clone();
+                byte[] orig = buf.clone();
+
+                BitslicedAES.processBlocks(AES.ENCRYPT_MODE, buf, ks, 5, 16 * blocks);
+                for (int off = 5; off < ref.length; off += 16)
+                    AES.blockRun(AES.ENCRYPT_MODE, ref, ks, off);
+                assertArrayEquals(ref, buf, "encrypt, key " + keyLen + ", blocks " + blocks);
+
+                BitslicedAES.processBlocks(AES.DECRYPT_MODE, buf, ks, 5, 16 * blocks);
+                assertArrayEquals(orig, buf, "decrypt, key " + keyLen + ", blocks " + blocks);
+            }
+        }
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
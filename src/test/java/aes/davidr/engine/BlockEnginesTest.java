@@ -0,0 +1,112 @@
+package aes.davidr.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BlockEnginesTest {
+
+    @Test
+    void allEngines_matchReference() {
+        Random rnd = new Random(5);
+        byte[] key = new byte[24];
+        rnd.nextBytes(key);
+        KeySchedule ks = new KeySchedule(key);
+        byte[] data = new byte[16 * 45];
+        rnd.nextBytes(data);
+
+        byte[] ref = data.clone();
+        BlockEngines.REFERENCE.processBlocks(AES.ENCRYPT_MODE, ref, ks, 0, ref.length);
+
+        for (BlockEngine e : BlockEngines.available()) {
+            byte[] got = data.clone();
+            e.processBlocks(AES.ENCRYPT_MODE, got, ks, 0, got.length);
+            assertArrayEquals(ref, got, e.name() + " in-place encrypt");
+
+            byte[] out = new byte[got.length + 16];
+            e.processBlocks(AES.DECRYPT_MODE, got, 0, got.length, out, 16, ks);
+            assertArrayEquals(data, Arrays.copyOfRange(out, 16, out.length), e.name() + " in/out decrypt");
+
+            byte[] one = Arrays.copyOf(data, 16);
+            e.processBlock(AES.ENCRYPT_MODE, one, ks, 0);
+            assertArrayEquals(Arrays.copyOf(ref, 16), one, e.name() + " single block");
+        }
+    }
+
+    @Test
+    void allEngines_byteBuffers_heapAndDirect() {
+        Random rnd = new Random(9);
+        KeySchedule ks = new KeySchedule(Arrays.copyOf(new byte[] { 1, 2, 3 }, 16));
+        byte[] data = new byte[16 * 700]; // more than one staging chunk
+        rnd.nextBytes(data);
+        byte[] ref = data.clone();
+        BlockEngines.REFERENCE.processBlocks(AES.ENCRYPT_MODE, ref, ks, 0, ref.length);
+
+        for (BlockEngine e : BlockEngines.available()) {
+            ByteBuffer in = ByteBuffer.allocateDirect(data.length + 3);
+            in.position(3);
+            in.put(data).flip().position(3);
+            ByteBuffer out = ByteBuffer.allocateDirect(data.length);
+            e.processBlocks(AES.ENCRYPT_MODE, in, out, ks);
+            assertFalse(in.hasRemaining(), e.name() + " input consumed");
+            assertFalse(out.hasRemaining(), e.name() + " output filled");
+            byte[] got = new byte[data.length];
+            out.flip().get(got);
+            assertArrayEquals(ref, got, e.name() + " direct encrypt");
+
+            ByteBuffer heap = ByteBuffer.allocate(data.length);
+            out.flip();
+            e.processBlocks(AES.DECRYPT_MODE, out, heap, ks);
+            assertArrayEquals(data, heap.array(), e.name() + " direct to heap decrypt");
+        }
+    }
+
+    @Test
+    void selectedEngine_isRegisteredAndReported() {
+        BlockEngine e = BlockEngines.selected();
+        assertNotNull(e);
+        assertSame(e, BlockEngines.byName(e.name()));
+        assertTrue(BlockEngines.report().contains(e.name()));
+        for (Double rate : BlockEngines.calibration().values())
+            assertTrue(rate == -1.0 || rate > 0);
+    }
+
+    @Test
+    void defaultSelection_isFirstAvailable_notTimed() {
+        if (System.getProperty(BlockEngines.ENGINE_PROPERTY) != null
+                || Boolean.getBoolean(BlockEngines.CALIBRATE_PROPERTY))
+            return; // pinned or calibrated run
+        assertSame(BlockEngines.available().get(0), BlockEngines.selected());
+        assertTrue(BlockEngines.calibration().isEmpty());
+    }
+
+    @Test
+    void jceEngine_matchesReference_acrossKeys() {
+        BlockEngine jce = BlockEngines.byName("jce"); // the JDK always ships SunJCE AES
+        Random rnd = new Random(6);
+        byte[] data = new byte[16 * 9];
+        rnd.nextBytes(data);
+        for (int keyLen : new int[] { 16, 32, 24, 16 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+
+            byte[] ref = data.clone();
+            BlockEngines.REFERENCE.processBlocks(AES.ENCRYPT_MODE, ref, ks, 0, ref.length);
+            byte[] got = data.clone();
+            jce.processBlocks(AES.ENCRYPT_MODE, got, ks, 0, got.length);
+            assertArrayEquals(ref, got, "jce encrypt, key " + keyLen);
+            jce.processBlocks(AES.DECRYPT_MODE, got, ks, 0, got.length);
+            assertArrayEquals(data, got, "jce decrypt, key " + keyLen);
+        }
+    }
+
+    @Test
+    void byName_unknown_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> BlockEngines.byName("no-such-engine"));
+    }
+}
@@ -1,6 +1,8 @@
 package aes.davidr.engine;
 
 import static org.junit.Assert.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import org.junit.jupiter.api.Test;
 
@@ -40,4 +42,47 @@ public class KeyScheduleTest {
         KeySchedule ks1 = new KeySchedule("aaaa", KeySchedule.AES_256);
         KeySchedule ks2 = new KeySchedule("aaaa");
     }
+
+    @Test
+    void testDecryptionWordsCached() {
+        KeySchedule ks = new KeySchedule("aaaa", KeySchedule.AES_192);
+        int[] dw = ks.decryptionWords();
+
+        assertSame(dw, ks.decryptionWords());
+        assertEquals(4 * (ks.getNr() + 1), dw.length);
+        // first and last decryption rounds are the raw last and first round keys
+        for (int c = 0; c < 4; c++) {
+            assertEquals(ks.words()[4 * ks.getNr() + c], dw[c]);
+            assertEquals(ks.words()[c], dw[4 * ks.getNr() + c]);
+        }
+    }
+
+    @Test
+    void testBitslicedRoundKeysCached() {
+        KeySchedule ks = new KeySchedule("aaaa", KeySchedule.AES_256);
+        long[][] planes = ks.bitslicedRoundKeys();
+
+        assertSame(planes, ks.bitslicedRoundKeys());
+        assertEquals(ks.getNr() + 1, planes.length);
+        ks.destroy();
+        for (long[] round : planes)
+            for (long plane : round)
+                assertEquals(0L, plane);
+    }
+
+    @Test
+    void testDestroyHooksOfFinishedThreadsDropped() throws InterruptedException {
+        KeySchedule ks = new KeySchedule("aaaa");
+        BlockEngine jce = BlockEngines.byName("jce");
+        for (int i = 0; i < 16; i++) {
+            Thread t = new Thread(() -> jce.processBlocks(true, new byte[16], ks, 0, 16));
+            t.start();
+            t.join();
+        }
+        for (int i = 0; i < 100 && ks.destroyHookCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, ks.destroyHookCount());
+    }
 }
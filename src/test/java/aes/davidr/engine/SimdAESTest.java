@@ -0,0 +1,41 @@
+package aes.davidr.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class SimdAESTest {
+
+    @Test
+    void matchesReferenceEngine_withOrWithoutVectorModule() {
+        Random rnd = new Random(4);
+        for (int keyLen : new int[] { 16, 24, 32 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+
+            // vector-sized chunks plus a scalar tail
+            byte[] buf = new byte[7 + 16 * 37];
+            rnd.nextBytes(buf);
+            byte[] ref = buf.clone();
+            byte[] orig = buf.clone();
+
+            SimdAES.processBlocks(AES.ENCRYPT_MODE, buf, ks, 7, buf.length - 7);
+            for (int off = 7; off < ref.length; off += 16)
+                AES.blockRun(AES.ENCRYPT_MODE, ref, ks, off);
+            assertArrayEquals(ref, buf, "encrypt mismatch, key " + keyLen);
+
+            SimdAES.processBlocks(AES.DECRYPT_MODE, buf, ks, 7, buf.length - 7);
+            assertArrayEquals(orig, buf, "decrypt mismatch, key " + keyLen);
+        }
+    }
+
+    @Test
+    void vectorBytesIsWholeBlocks() {
+        int n = SimdAES.vectorBytes();
+        assertEquals(SimdAES.isAvailable(), n > 0);
+        assertEquals(0, n % 16);
+    }
+}
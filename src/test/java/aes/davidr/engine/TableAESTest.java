@@ -0,0 +1,133 @@
+package aes.davidr.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TableAESTest {
+
+    @Test
+    void fips197_knownVectors_encrypt() {
+        byte[] pt = hex("00112233445566778899AABBCCDDEEFF");
+
+        assertArrayEquals(hex("69C4E0D86A7B0430D8CDB78070B4C55A"),
+                TableAES.encryptBlock(pt.clone(), new KeySchedule(hex("000102030405060708090A0B0C0D0E0F")), 0),
+                "AES-128 KAT mismatch");
+        assertArrayEquals(hex("DDA97CA4864CDFE06EAF70A0EC0D7191"),
+                TableAES.encryptBlock(pt.clone(),
+                        new KeySchedule(hex("000102030405060708090A0B0C0D0E0F1011121314151617")), 0),
+                "AES-192 KAT mismatch");
+        assertArrayEquals(hex("8EA2B7CA516745BFEAFC49904B496089"),
+                TableAES.encryptBlock(pt.clone(),
+                        new KeySchedule(hex("000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F")), 0),
+                "AES-256 KAT mismatch");
+    }
+
+    @Test
+    void fips197_knownVectors_decrypt() {
+        byte[] pt = hex("00112233445566778899AABBCCDDEEFF");
+
+        assertArrayEquals(pt, TableAES.decryptBlock(hex("69C4E0D86A7B0430D8CDB78070B4C55A"),
+                new KeySchedule(hex("000102030405060708090A0B0C0D0E0F")), 0), "AES-128 KAT mismatch");
+        assertArrayEquals(pt, TableAES.decryptBlock(hex("DDA97CA4864CDFE06EAF70A0EC0D7191"),
+                new KeySchedule(hex("000102030405060708090A0B0C0D0E0F1011121314151617")), 0),
+                "AES-192 KAT mismatch");
+        assertArrayEquals(pt, TableAES.decryptBlock(hex("8EA2B7CA516745BFEAFC49904B496089"),
+                new KeySchedule(hex("000102030405060708090A0B0C0D0E0F101112131415161718191A1B1C1D1E1F")), 0),
+                "AES-256 KAT mismatch");
+    }
+
+    @Test
+    void matchesReferenceEngine_atOffsets() {
+        Random rnd = new Random(1);
+        for (int keyLen : new int[] { 16, 24, 32 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+
+            byte[] buf = new byte[16 * 9 + 3];
+            rnd.nextBytes(buf);
+            byte[] ref = buf.clone();
+            for (int off = 3; off < buf.length; off += 16) {
+                TableAES.blockRun(AES.ENCRYPT_MODE, buf, ks, off);
+                AES.blockRun(AES.ENCRYPT_MODE, ref, ks, off);
+            }
+            assertArrayEquals(ref, buf, "T-table output differs for key length " + keyLen);
+
+            for (int off = 3; off < buf.length; off += 16) {
+                TableAES.blockRun(AES.DECRYPT_MODE, buf, ks, off);
+            }
+            for (int off = 3; off < buf.length; off += 16) {
+                AES.blockRun(AES.DECRYPT_MODE, ref, ks, off);
+            }
+            assertArrayEquals(ref, buf);
+        }
+    }
+
+    @Test
+    void interleavedBulk_matchesSingleBlocks() {
+        Random rnd = new Random(2);
+        for (int keyLen : new int[] { 16, 24, 32 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+
+            // 4-block groups plus a 3-block tail
+            byte[] buf = new byte[1 + 16 * (3 * TableAES.INTERLEAVE + 3)];
+            rnd.nextBytes(buf);
+            byte[] ref = buf.clone();
+            byte[] orig = buf.clone();
+
+            TableAES.processBlocks(AES.ENCRYPT_MODE, buf, ks, 1, buf.length - 1);
+            for (int off = 1; off < ref.length; off += 16)
+                AES.blockRun(AES.ENCRYPT_MODE, ref, ks, off);
+            assertArrayEquals(ref, buf, "interleaved encrypt, key " + keyLen);
+
+            TableAES.processBlocks(AES.DECRYPT_MODE, buf, ks, 1, buf.length - 1);
+            assertArrayEquals(orig, buf, "interleaved decrypt, key " + keyLen);
+        }
+    }
+
+    @Test
+    void separateOutput_andOverlappingRanges() {
+        Random rnd = new Random(3);
+        byte[] key = new byte[16];
+        rnd.nextBytes(key);
+        KeySchedule ks = new KeySchedule(key);
+        int len = 16 * (2 * TableAES.INTERLEAVE + 1);
+
+        byte[] data = new byte[len];
+        rnd.nextBytes(data);
+        byte[] ref = data.clone();
+        TableAES.processBlocks(AES.ENCRYPT_MODE, ref, ks, 0, len);
+
+        byte[] out = new byte[len + 5];
+        TableAES.processBlocks(AES.ENCRYPT_MODE, data, 0, len, out, 5, ks);
+        assertArrayEquals(ref, java.util.Arrays.copyOfRange(out, 5, out.length), "separate output");
+
+        // output shifted forward and backward inside the same array
+        for (int shift : new int[] { 16, 7, -16, -7 }) {
+            byte[] buf = new byte[len + 32];
+            int inOff = 16;
+            System.arraycopy(data, 0, buf, inOff, len);
+            TableAES.processBlocks(AES.ENCRYPT_MODE, buf, inOff, len, buf, inOff + shift, ks);
+            assertArrayEquals(ref, java.util.Arrays.copyOfRange(buf, inOff + shift, inOff + shift + len),
+                    "overlap shift " + shift);
+        }
+
+        byte[] one = new byte[16];
+        TableAES.blockRun(AES.DECRYPT_MODE, ref, 0, one, 0, ks);
+        assertArrayEquals(java.util.Arrays.copyOf(data, 16), one, "single block in/out");
+    }
+
+    private static byte[] hex(String s) {
+        s = s.replaceAll("\\s+", "");
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,100 @@
+package aes.davidr.fileCrypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import aes.davidr.engine.KeySchedule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileECBChannelTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final KeySchedule KS = new KeySchedule(new byte[16]);
+
+    @Test
+    void randomRangeReads_matchPlaintext() throws IOException {
+        Random rnd = new Random(25);
+        for (int size : new int[] { 0, 1, 15, 16, FileECBChannel.PAGE, 3 * FileECBChannel.PAGE + 77 }) {
+            byte[] data = new byte[size];
+            rnd.nextBytes(data);
+            Path enc = encrypt(data);
+
+            for (int cachePages : new int[] { 0, 2 }) {
+                try (FileECBChannel c = FileECBChannel.open(enc.toFile(), KS, cachePages)) {
+                    assertEquals(size, c.size());
+                    for (int k = 0; k < 50; k++) {
+                        int from = rnd.nextInt(size + 1);
+                        int len = rnd.nextInt(2 * FileECBChannel.PAGE);
+                        ByteBuffer dst = ByteBuffer.allocate(len);
+                        c.position(from);
+                        int n = Math.max(0, c.read(dst));
+                        assertEquals(Math.min(len, size - from), n);
+                        assertArrayEquals(Arrays.copyOfRange(data, from, from + n), Arrays.copyOf(dst.array(), n));
+                        assertEquals(from + n, c.position());
+                    }
+                    c.position(size + 10);
+                    assertEquals(-1, c.read(ByteBuffer.allocate(4)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void inputStreamFromOffset() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(1).nextBytes(data);
+        Path enc = encrypt(data);
+        try (InputStream is = FileECBChannel.newInputStream(enc.toFile(), KS, 1234)) {
+            assertArrayEquals(Arrays.copyOfRange(data, 1234, data.length), is.readAllBytes());
+        }
+    }
+
+    @Test
+    void inputStreamNegativeOffset_rejectedWithoutLeak() throws IOException {
+        Path enc = encrypt(new byte[100]);
+        java.io.File fds = new java.io.File("/proc/self/fd");
+        int open = fds.isDirectory() ? fds.list().length : 0;
+        for (int i = 0; i < 20; i++)
+            assertThrows(IllegalArgumentException.class, () -> FileECBChannel.newInputStream(enc.toFile(), KS, -1));
+        if (fds.isDirectory())
+            assertEquals(open, fds.list().length, "file descriptors leaked");
+    }
+
+    @Test
+    void readOnly_closed_andBadFiles() throws IOException {
+        Path enc = encrypt(new byte[100]);
+        FileECBChannel c = FileECBChannel.open(enc.toFile(), KS);
+        assertThrows(NonWritableChannelException.class, () -> c.write(ByteBuffer.allocate(1)));
+        assertThrows(NonWritableChannelException.class, () -> c.truncate(0));
+        c.close();
+        assertFalse(c.isOpen());
+        assertThrows(ClosedChannelException.class, () -> c.read(ByteBuffer.allocate(1)));
+
+        Path odd = tempDir.resolve("odd");
+        Files.write(odd, new byte[20]);
+        assertThrows(IOException.class, () -> FileECBChannel.open(odd.toFile(), KS));
+        assertThrows(IllegalArgumentException.class,
+                () -> FileECBChannel.open(enc.toFile(), new KeySchedule(new byte[24])));
+    }
+
+    private Path encrypt(byte[] data) throws IOException {
+        Path plain = tempDir.resolve("plain");
+        Path enc = tempDir.resolve("enc" + data.length);
+        Files.write(plain, data);
+        FileECB.processFile(FileECB.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KS);
+        return enc;
+    }
+}
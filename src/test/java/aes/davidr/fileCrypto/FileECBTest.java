@@ -8,14 +8,18 @@ import org.junit.jupiter.api.parallel.ResourceLock;
 import aes.davidr.engine.KeySchedule;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Comparator;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileECBTest {
@@ -93,6 +97,53 @@ class FileECBTest {
     
     }
 
+    @Test
+    void testProcessFileMappedMatchesStream() throws IOException {
+        KeySchedule ks = new KeySchedule(new byte[24]);
+        Random rnd = new Random(21);
+        for (int n : new int[] { 0, 1, 15, 16, 17, 100_003 }) {
+            byte[] data = new byte[n];
+            rnd.nextBytes(data);
+            Path plain = tempDir.resolve("m" + n);
+            Path streamEnc = tempDir.resolve("m" + n + ".s");
+            Path mappedEnc = tempDir.resolve("m" + n + ".m");
+            Path dec = tempDir.resolve("m" + n + ".d");
+            Files.write(plain, data);
+
+            try (InputStream is = Files.newInputStream(plain);
+                 OutputStream os = Files.newOutputStream(streamEnc)) {
+                FileECB.encryptIStoOS(is, os, ks);
+            }
+            FileECB.processFileMapped(FileECB.ENCRYPT_MODE, plain.toFile(), mappedEnc.toFile(), ks);
+            assertArrayEquals(Files.readAllBytes(streamEnc), Files.readAllBytes(mappedEnc), "size " + n);
+
+            FileECB.processFileMapped(FileECB.DECRYPT_MODE, mappedEnc.toFile(), dec.toFile(), ks);
+            assertArrayEquals(data, Files.readAllBytes(dec), "size " + n);
+        }
+
+        Path bad = tempDir.resolve("bad");
+        Files.write(bad, new byte[20]);
+        assertThrows(IOException.class,
+                () -> FileECB.processFileMapped(FileECB.DECRYPT_MODE, bad.toFile(), tempDir.resolve("x").toFile(), ks));
+    }
+
+    @Test
+    void testProcessFileLargeToDevice() throws IOException {
+        java.io.File devNull = new java.io.File("/dev/null");
+        if (!devNull.exists())
+            return; // no device file to write to here
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] data = new byte[5 << 20]; // above the mapped-path size
+        new Random(22).nextBytes(data);
+        Path plain = tempDir.resolve("big");
+        Path enc = tempDir.resolve("big.enc");
+        Files.write(plain, data);
+
+        FileECB.processFile(FileECB.ENCRYPT_MODE, plain.toFile(), devNull, ks);
+        FileECB.processFile(FileECB.ENCRYPT_MODE, plain.toFile(), enc.toFile(), ks);
+        FileECB.processFile(FileECB.DECRYPT_MODE, enc.toFile(), devNull, ks);
+    }
+
     @AfterEach
     void cleanup() throws IOException {
         if (Files.exists(tempDir)) {
@@ -0,0 +1,57 @@
+package aes.davidr.fileCrypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileGCMTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final byte[] KEY = new byte[] {
+            0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F
+    };
+
+    @Test
+    void encryptThenDecrypt_roundTrip_ok() throws Exception {
+        for (int size : new int[] { 0, 1, 70_000 }) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            Path plain = tempDir.resolve("p" + size);
+            Path enc = tempDir.resolve("e" + size);
+            Path dec = tempDir.resolve("d" + size);
+            Files.write(plain, data);
+
+            FileGCM.processFile(FileGCM.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY);
+            assertEquals(FileGCM.HEADER_LEN + size + 16, Files.size(enc));
+            FileGCM.processFile(FileGCM.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY);
+            assertArrayEquals(data, Files.readAllBytes(dec));
+        }
+    }
+
+    @Test
+    void tampered_rejected_andOutputRemoved() throws Exception {
+        Path plain = tempDir.resolve("plain.bin");
+        Path enc = tempDir.resolve("plain.enc");
+        Path dec = tempDir.resolve("plain.dec");
+        Files.write(plain, new byte[100_000]);
+        FileGCM.processFile(FileGCM.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY);
+
+        for (int i : new int[] { 10, FileGCM.HEADER_LEN + 5, FileGCM.HEADER_LEN + 100_000 + 3 }) {
+            byte[] b = Files.readAllBytes(enc);
+            b[i] ^= 1;
+            Path bad = tempDir.resolve("bad" + i);
+            Files.write(bad, b);
+            assertThrows(SecurityException.class,
+                    () -> FileGCM.processFile(FileGCM.DECRYPT_MODE, bad.toFile(), dec.toFile(), KEY));
+            assertFalse(Files.exists(dec));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package aes.davidr.fileCrypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileSegmentedGCMTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final byte[] KEY = new byte[] {
+            0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+            0x08, 0x09, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F
+    };
+    private static final int SEG = 1024;
+    private static final int STRIDE = SEG + 16;
+
+    @Test
+    void encryptThenDecrypt_roundTrip_ok() throws Exception {
+        for (int size : new int[] { 0, 1, SEG, SEG + 1, 3 * SEG, 200_003 }) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            Path plain = tempDir.resolve("p" + size);
+            Path enc = tempDir.resolve("e" + size);
+            Path dec = tempDir.resolve("d" + size);
+            Files.write(plain, data);
+
+            FileSegmentedGCM.processFile(FileSegmentedGCM.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY, SEG);
+            long segments = Math.max(1, (size + SEG - 1) / SEG);
+            assertEquals(FileSegmentedGCM.HEADER_LEN + size + 16 * segments, Files.size(enc));
+            FileSegmentedGCM.processFile(FileSegmentedGCM.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY);
+            assertArrayEquals(data, Files.readAllBytes(dec));
+        }
+    }
+
+    @Test
+    void modifiedSegment_reportedByIndex_andOutputRemoved() throws Exception {
+        byte[] enc = encrypt(5 * SEG + 100);
+        enc[FileSegmentedGCM.HEADER_LEN + 3 * STRIDE + 10] ^= 1;
+        SecurityException e = assertThrows(SecurityException.class, () -> decrypt(enc));
+        assertTrue(e.getMessage().contains("segment 3"), e.getMessage());
+        assertFalse(Files.exists(tempDir.resolve("out")));
+    }
+
+    @Test
+    void truncationAndReordering_rejected() throws Exception {
+        byte[] enc = encrypt(4 * SEG);
+
+        // cut at a segment boundary: the new last segment was not written as final
+        byte[] cut = Arrays.copyOf(enc, FileSegmentedGCM.HEADER_LEN + 2 * STRIDE);
+        assertThrows(SecurityException.class, () -> decrypt(cut));
+
+        // swap segments 0 and 1
+        byte[] swapped = enc.clone();
+        int h = FileSegmentedGCM.HEADER_LEN;
+        System.arraycopy(enc, h, swapped, h + STRIDE, STRIDE);
+        System.arraycopy(enc, h + STRIDE, swapped, h, STRIDE);
+        assertThrows(SecurityException.class, () -> decrypt(swapped));
+
+        // header is authenticated too (last prefix byte)
+        byte[] header = enc.clone();
+        header[FileSegmentedGCM.HEADER_LEN - 1] ^= 1;
+        assertThrows(SecurityException.class, () -> decrypt(header));
+
+        byte[] partial = Arrays.copyOf(enc, enc.length - STRIDE + 8);
+        assertThrows(IOException.class, () -> decrypt(partial));
+    }
+
+    @Test
+    void perFileKey_saltAuthenticated() throws Exception {
+        byte[] a = encrypt(2 * SEG);
+        byte[] b = encrypt(2 * SEG);
+        // same key and plaintext, fresh salt: nothing of the body repeats
+        assertFalse(Arrays.equals(Arrays.copyOfRange(a, FileSegmentedGCM.HEADER_LEN, a.length),
+                Arrays.copyOfRange(b, FileSegmentedGCM.HEADER_LEN, b.length)));
+
+        // another file's salt derives another key
+        byte[] mixed = a.clone();
+        System.arraycopy(b, 13, mixed, 13, 32);
+        assertThrows(SecurityException.class, () -> decrypt(mixed));
+    }
+
+    @Test
+    void hugeSegmentSizeInHeader_rejectedWithoutHugeBuffer() throws Exception {
+        byte[] enc = encrypt(100);
+        enc[9] = 0x40; // SEGMENT_SIZE = 1 GB, unauthenticated until the tag is checked
+        enc[10] = enc[11] = enc[12] = 0;
+        assertThrows(SecurityException.class, () -> decrypt(enc));
+    }
+
+    private byte[] encrypt(int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        Path plain = tempDir.resolve("plain");
+        Path enc = tempDir.resolve("enc");
+        Files.write(plain, data);
+        FileSegmentedGCM.processFile(FileSegmentedGCM.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY, SEG);
+        return Files.readAllBytes(enc);
+    }
+
+    private void decrypt(byte[] enc) throws Exception {
+        Path in = tempDir.resolve("bad");
+        Files.write(in, enc);
+        FileSegmentedGCM.processFile(FileSegmentedGCM.DECRYPT_MODE, in.toFile(), tempDir.resolve("out").toFile(), KEY);
+    }
+}
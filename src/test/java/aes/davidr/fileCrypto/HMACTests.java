@@ -172,4 +172,85 @@ public class HMACTests {
 
         assertArrayEquals(new byte[0], Files.readAllBytes(dec));
     }
+
+    // ============================================================
+    // 8) Failed decrypt leaves an existing output untouched, no temp files
+    // ============================================================
+
+    @Test
+    void failedDecrypt_keepsExistingOutput() throws Exception {
+        Path plain = writeRandomFile("plain.bin", 100_000);
+        Path enc = tempDir.resolve("plain.bin.enc");
+        Path dec = tempDir.resolve("plain.bin.dec");
+        Files.write(dec, new byte[] { 1, 2, 3 });
+
+        HMAC.processFile(HMAC.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY1);
+        flipOneByte(enc, Files.size(enc) - 1); // last byte: padding block
+
+        assertThrows(SecurityException.class,
+                () -> HMAC.processFile(HMAC.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY1));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(dec));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(3, files.count());
+        }
+
+        flipOneByte(enc, Files.size(enc) - 1);
+        HMAC.processFile(HMAC.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY1);
+        assertArrayEquals(Files.readAllBytes(plain), Files.readAllBytes(dec));
+    }
+
+    @Test
+    void decrypt_toOneCharacterName_ok() throws Exception {
+        Path plain = writeRandomFile("p", 1000);
+        Path enc = tempDir.resolve("e");
+        Path dec = tempDir.resolve("d");
+
+        HMAC.processFile(HMAC.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY1);
+        HMAC.processFile(HMAC.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY1);
+        assertArrayEquals(Files.readAllBytes(plain), Files.readAllBytes(dec));
+    }
+
+    // ============================================================
+    // 9) VERSION 2 (chunk tree): round trip, verify, bad chunk by index
+    // ============================================================
+
+    @Test
+    void chunkTree_roundTrip_andBadChunkIndex() throws Exception {
+        for (int n : new int[] { 0, 15, 4096, 300_001 }) {
+            Path plain = writeRandomFile("tree" + n, n);
+            Path enc = tempDir.resolve("tree" + n + ".enc");
+            Path dec = tempDir.resolve("tree" + n + ".dec");
+            HMAC.processFile(HMAC.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY1, 4096);
+            HMAC.verifyFile(enc.toFile(), KEY1);
+            HMAC.processFile(HMAC.DECRYPT_MODE, enc.toFile(), dec.toFile(), KEY1);
+            assertArrayEquals(Files.readAllBytes(plain), Files.readAllBytes(dec));
+        }
+
+        Path enc = tempDir.resolve("tree300001.enc");
+        flipOneByte(enc, HMAC.HEADER_LEN_TREE + 5L * 4096 + 7); // inside chunk 5
+        HMAC.ChunkMismatchException e = assertThrows(HMAC.ChunkMismatchException.class,
+                () -> HMAC.verifyFile(enc.toFile(), KEY1));
+        assertEquals(5, e.chunkIndex());
+        assertThrows(HMAC.ChunkMismatchException.class,
+                () -> HMAC.processFile(HMAC.DECRYPT_MODE, enc.toFile(), tempDir.resolve("x").toFile(), KEY1));
+        assertFalse(Files.exists(tempDir.resolve("x")));
+    }
+
+    @Test
+    void chunkTree_tamperedTrailerOrWrongKey_rejected() throws Exception {
+        Path plain = writeRandomFile("plain.bin", 50_000);
+        Path enc = tempDir.resolve("plain.bin.enc");
+        HMAC.processFile(HMAC.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY1, 1024);
+        HMAC.verifyFile(enc.toFile(), KEY1);
+
+        SecurityException wrongKey = assertThrows(SecurityException.class, () -> HMAC.verifyFile(enc.toFile(), KEY2));
+        assertFalse(wrongKey instanceof HMAC.ChunkMismatchException);
+
+        flipOneByte(enc, Files.size(enc) - 1); // last chunk tag in the trailer
+        SecurityException trailer = assertThrows(SecurityException.class, () -> HMAC.verifyFile(enc.toFile(), KEY1));
+        assertFalse(trailer instanceof HMAC.ChunkMismatchException);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> HMAC.processFile(HMAC.ENCRYPT_MODE, plain.toFile(), enc.toFile(), KEY1, 100));
+    }
 }
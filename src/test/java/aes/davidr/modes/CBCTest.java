@@ -0,0 +1,121 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.KeySchedule;
+
+class CBCTest {
+
+    @Test
+    void sp800_38a_F21() {
+        KeySchedule ks = new KeySchedule(hex("2b7e151628aed2a6abf7158809cf4f3c"));
+        byte[] iv = hex("000102030405060708090a0b0c0d0e0f");
+        byte[] pt = hex("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51");
+        byte[] out = new byte[pt.length];
+        CBC.cbcEncryptBlocks(iv, pt, 0, pt.length, out, 0, ks);
+        assertArrayEquals(hex("7649abac8119b246cee98e9b12e9197d5086cb9b507219ee95db113a917678b2"), out);
+        CBC.cbcDecryptBlocks(iv, out, 0, out.length, out, 0, ks);
+        assertArrayEquals(pt, out);
+    }
+
+    @Test
+    void matchesJce_padded() throws Exception {
+        Random rnd = new Random(17);
+        byte[] key = new byte[24];
+        rnd.nextBytes(key);
+        KeySchedule ks = new KeySchedule(key);
+        for (int n : new int[] { 0, 1, 16, 31, 5000 }) {
+            byte[] iv = new byte[16];
+            byte[] pt = new byte[n];
+            rnd.nextBytes(iv);
+            rnd.nextBytes(pt);
+            Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            byte[] ct = CBC.cbcEncrypt(iv, pt, ks);
+            assertArrayEquals(c.doFinal(pt), ct, "length " + n);
+            assertArrayEquals(pt, CBC.cbcDecrypt(iv, ct, ks), "length " + n);
+        }
+    }
+
+    @Test
+    void multiStream_matchesSingleStreams() {
+        Random rnd = new Random(18);
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        int[] lengths = { 0, 3, 64, 100, 17, 1000 };
+        byte[][] ivs = new byte[lengths.length][16];
+        byte[][] pts = new byte[lengths.length][];
+        for (int k = 0; k < lengths.length; k++) {
+            rnd.nextBytes(ivs[k]);
+            pts[k] = new byte[lengths[k]];
+            rnd.nextBytes(pts[k]);
+        }
+        byte[][] cts = CBC.cbcEncryptMulti(ivs, pts, ks);
+        for (int k = 0; k < lengths.length; k++) {
+            assertArrayEquals(CBC.cbcEncrypt(ivs[k], pts[k], ks), cts[k], "stream " + k);
+            assertArrayEquals(pts[k], CBC.cbcDecrypt(ivs[k], cts[k], ks), "stream " + k);
+        }
+    }
+
+    @Test
+    void decrypt_overlappingRanges() {
+        KeySchedule ks = new KeySchedule(new byte[32]);
+        byte[] iv = new byte[16];
+        byte[] pt = new byte[16 * 50];
+        new Random(19).nextBytes(pt);
+        byte[] ct = new byte[pt.length];
+        CBC.cbcEncryptBlocks(iv, pt, 0, pt.length, ct, 0, ks);
+
+        byte[] buf = Arrays.copyOf(ct, ct.length + 16);
+        CBC.cbcDecryptBlocks(iv, buf, 0, ct.length, buf, 16, ks);
+        assertArrayEquals(pt, Arrays.copyOfRange(buf, 16, buf.length));
+
+        assertThrows(IllegalArgumentException.class, () -> CBC.cbcDecrypt(iv, new byte[15], ks));
+        assertThrows(IllegalArgumentException.class, () -> CBC.cbcEncrypt(new byte[8], pt, ks));
+    }
+
+    @Test
+    void decrypt_inPlace_matchesOutOfPlace() {
+        Random rnd = new Random(20);
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] iv = new byte[16];
+        rnd.nextBytes(iv);
+        // one block, several stage chunks, and enough to be split across the pool
+        for (int n : new int[] { 16, 4096 * 3 + 48, (1 << 20) + 16 * 5 }) {
+            byte[] ct = new byte[n + 32];
+            rnd.nextBytes(ct);
+            byte[] expected = new byte[n];
+            CBC.cbcDecryptBlocks(iv, ct, 16, n, expected, 0, ks);
+
+            byte[] buf = ct.clone();
+            CBC.cbcDecryptBlocks(iv, buf, 16, n, buf, 16, ks);
+            assertArrayEquals(expected, Arrays.copyOfRange(buf, 16, 16 + n), "length " + n);
+            assertArrayEquals(Arrays.copyOf(ct, 16), Arrays.copyOf(buf, 16));
+            assertArrayEquals(Arrays.copyOfRange(ct, n + 16, n + 32), Arrays.copyOfRange(buf, n + 16, n + 32));
+        }
+    }
+
+    @Test
+    void decrypt_badPadding_rejected() {
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] iv = new byte[16];
+        byte[] ct = new byte[32];
+        CBC.cbcEncryptBlocks(iv, new byte[32], 0, 32, ct, 0, ks); // last block decrypts to zeros
+        assertThrows(IllegalArgumentException.class, () -> CBC.cbcDecrypt(iv, ct, ks));
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
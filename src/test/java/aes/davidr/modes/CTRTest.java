@@ -0,0 +1,96 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.KeySchedule;
+
+class CTRTest {
+
+    @Test
+    void sp800_38a_F51() {
+        KeySchedule ks = new KeySchedule(hex("2b7e151628aed2a6abf7158809cf4f3c"));
+        byte[] iv = hex("f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff");
+        byte[] pt = hex("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51");
+        assertArrayEquals(hex("874d6191b620e3261bef6864990db6ce9806f66b7970fdff8617187bb9fffdff"),
+                CTR.ctrCryptBytes(iv, pt, ks));
+    }
+
+    @Test
+    void matchesJce_oddLengths_andCounterWrap() throws Exception {
+        Random rnd = new Random(13);
+        byte[] key = new byte[32];
+        rnd.nextBytes(key);
+        KeySchedule ks = new KeySchedule(key);
+        byte[] ivWrap = hex("0000000000000000fffffffffffffffe"); // carries into the high half
+        for (byte[] iv : new byte[][] { new byte[16], ivWrap, hex("ffffffffffffffffffffffffffffffff") }) {
+            for (int n : new int[] { 0, 1, 15, 17, 4095, 4097, 70000 }) {
+                byte[] pt = new byte[n];
+                rnd.nextBytes(pt);
+                Cipher c = Cipher.getInstance("AES/CTR/NoPadding");
+                c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+                assertArrayEquals(c.doFinal(pt), CTR.ctrCryptBytes(iv, pt, ks), "length " + n);
+            }
+        }
+    }
+
+    @Test
+    void seek_matchesStreamFromStart() {
+        Random rnd = new Random(14);
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] iv = new byte[16];
+        rnd.nextBytes(iv);
+        byte[] pt = new byte[10000];
+        rnd.nextBytes(pt);
+        byte[] whole = CTR.ctrCryptBytes(iv, pt, ks);
+
+        for (int start : new int[] { 1, 16, 33, 4093, 9999 }) {
+            int n = pt.length - start;
+            byte[] part = new byte[n];
+            CTR.ctrProcessBytes(iv, start, pt, start, n, part, 0, ks);
+            assertArrayEquals(Arrays.copyOfRange(whole, start, pt.length), part, "seek " + start);
+        }
+
+        // in place, and with the output shifted over the input
+        byte[] buf = Arrays.copyOf(whole, whole.length + 5);
+        CTR.ctrProcessBytes(iv, 0, buf, 0, whole.length, buf, 5, ks);
+        assertArrayEquals(pt, Arrays.copyOfRange(buf, 5, buf.length));
+    }
+
+    @Test
+    void counterBlocks_32BitVariantsWrap() {
+        byte[] iv = hex("fffffffe0102030405060708fffffffe");
+        byte[] be = new byte[48];
+        CTR.counterBlocks(CTR.Increment.BE32, iv, 1, be, 3);
+        assertArrayEquals(hex("fffffffe0102030405060708ffffffff"), Arrays.copyOfRange(be, 0, 16));
+        assertArrayEquals(hex("fffffffe010203040506070800000000"), Arrays.copyOfRange(be, 16, 32));
+        byte[] le = new byte[48];
+        CTR.counterBlocks(CTR.Increment.LE32, hex("feffffff0102030405060708090a0b0c"), 1, le, 2);
+        assertArrayEquals(hex("ffffffff0102030405060708090a0b0c"), Arrays.copyOfRange(le, 0, 16));
+        assertArrayEquals(hex("000000000102030405060708090a0b0c"), Arrays.copyOfRange(le, 16, 32));
+    }
+
+    @Test
+    void rejectsBadInput() {
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        assertThrows(IllegalArgumentException.class, () -> CTR.ctrCryptBytes(new byte[12], new byte[1], ks));
+        assertThrows(IllegalArgumentException.class, () -> CTR.ctrCryptBytes(new byte[16], null, ks));
+        assertThrows(IllegalArgumentException.class,
+                () -> CTR.ctrProcessBytes(new byte[16], -1, new byte[1], 0, 1, new byte[1], 0, ks));
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
@@ -50,6 +50,113 @@ public class ECBTest {
         assertThrows(IllegalArgumentException.class, () -> ECB.ecbProcessBlock(AES.DECRYPT_MODE, ptNULL, ks, 0));
     }
 
+    @Test
+    void testEcbConstantTimeMatchesEcb() {
+        byte[] key = hex("000102030405060708090A0B0C0D0E0F");
+        KeySchedule ks = new KeySchedule(key);
+        byte[] data = new byte[16 * 11];
+        new java.util.Random(7).nextBytes(data);
+
+        byte[] a = data.clone();
+        byte[] b = data.clone();
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, a, ks);
+        ECB.ecbProcessBlocksConstantTime(AES.ENCRYPT_MODE, b, ks, 0, b.length);
+        assertArrayEquals(a, b, "bitsliced ECB mismatch");
+
+        ECB.ecbProcessBlocksConstantTime(AES.DECRYPT_MODE, b, ks, 0, b.length);
+        assertArrayEquals(data, b, "bitsliced ECB round-trip mismatch");
+        assertThrows(IllegalArgumentException.class,
+                () -> ECB.ecbProcessBlocksConstantTime(AES.ENCRYPT_MODE, data, ks, 0, 15));
+    }
+
+    @Test
+    void testEcbSeparateOutput() {
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090A0B0C0D0E0F"));
+        byte[] data = new byte[16 * 9];
+        new java.util.Random(8).nextBytes(data);
+
+        byte[] ref = data.clone();
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, ref, ks);
+        byte[] out = new byte[data.length + 3];
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, data, 0, data.length, out, 3, ks);
+        assertArrayEquals(ref, java.util.Arrays.copyOfRange(out, 3, out.length));
+
+        // overlapping ranges in one array behave like a copy first
+        byte[] buf = java.util.Arrays.copyOf(ref, ref.length + 16);
+        ECB.ecbProcessBlocks(AES.DECRYPT_MODE, buf, 0, ref.length, buf, 16, ks);
+        assertArrayEquals(data, java.util.Arrays.copyOfRange(buf, 16, buf.length));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, data, 0, data.length, new byte[16], 0, ks));
+        for (int n : new int[] { 0, 1, 15, 16, 17, 100 }) {
+            byte[] pt = java.util.Arrays.copyOf(data, n);
+            assertArrayEquals(pt, ECB.ecbCryptBytes(false, ECB.ecbCryptBytes(true, pt, ks), ks), "round trip " + n);
+        }
+    }
+
+    @Test
+    void testEcbByteBuffers() {
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090A0B0C0D0E0F"));
+        byte[] data = new byte[16 * 6];
+        new java.util.Random(10).nextBytes(data);
+        byte[] ref = data.clone();
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, ref, ks);
+
+        // one direct buffer, in place
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocateDirect(data.length);
+        buf.put(data).flip();
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, buf, buf, ks);
+        assertEquals(buf.limit(), buf.position());
+        byte[] got = new byte[data.length];
+        buf.flip().get(got);
+        assertArrayEquals(ref, got);
+
+        java.nio.ByteBuffer heap = java.nio.ByteBuffer.allocate(data.length);
+        ECB.ecbProcessBlocks(AES.DECRYPT_MODE, buf.flip(), heap, ks);
+        assertArrayEquals(data, heap.array());
+
+        assertThrows(IllegalArgumentException.class, () -> ECB.ecbProcessBlocks(AES.ENCRYPT_MODE,
+                java.nio.ByteBuffer.allocate(15), java.nio.ByteBuffer.allocate(16), ks));
+        assertThrows(IllegalArgumentException.class, () -> ECB.ecbProcessBlocks(AES.ENCRYPT_MODE,
+                java.nio.ByteBuffer.allocate(32), java.nio.ByteBuffer.allocate(16), ks));
+        assertThrows(IllegalArgumentException.class, () -> ECB.ecbProcessBlocks(AES.ENCRYPT_MODE,
+                java.nio.ByteBuffer.allocate(16), java.nio.ByteBuffer.allocate(16).asReadOnlyBuffer(), ks));
+    }
+
+    @Test
+    void testEcbMappedFile() throws Exception {
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090A0B0C0D0E0F"));
+        byte[] data = new byte[16 * 1000];
+        new java.util.Random(11).nextBytes(data);
+        int off = 5;
+        byte[] ref = java.util.Arrays.copyOfRange(data, off, off + 16 * 900);
+        ECB.ecbProcessBlocks(AES.ENCRYPT_MODE, ref, ks);
+
+        java.nio.file.Path src = java.nio.file.Files.createTempFile("ecb", ".in");
+        java.nio.file.Path dst = java.nio.file.Files.createTempFile("ecb", ".out");
+        try {
+            java.nio.file.Files.write(src, data);
+            try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(src,
+                    java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE);
+                    java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(dst,
+                            java.nio.file.StandardOpenOption.READ, java.nio.file.StandardOpenOption.WRITE)) {
+                // small windows so the region spans several mappings
+                ECB.ecbProcessMapped(AES.ENCRYPT_MODE, in, off, ref.length, out, 0, ks, 4096);
+                assertArrayEquals(ref, java.nio.file.Files.readAllBytes(dst));
+
+                ECB.ecbProcessMapped(AES.DECRYPT_MODE, out, 0, ref.length, out, 0, ks, 4096);
+                assertArrayEquals(java.util.Arrays.copyOfRange(data, off, off + ref.length),
+                        java.nio.file.Files.readAllBytes(dst));
+
+                assertThrows(IllegalArgumentException.class,
+                        () -> ECB.ecbProcessMapped(AES.ENCRYPT_MODE, in, 0, 16 * 1001, out, 0, ks));
+            }
+        } finally {
+            java.nio.file.Files.deleteIfExists(src);
+            java.nio.file.Files.deleteIfExists(dst);
+        }
+    }
+
     @Test
     
     void testEcbPad() {
@@ -0,0 +1,62 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.KeySchedule;
+
+class GCMSIVTest {
+
+    @Test
+    void rfc8452_vectors() {
+        KeySchedule ks = new KeySchedule(hex("01000000000000000000000000000000"));
+        byte[] nonce = hex("030000000000000000000000");
+        assertArrayEquals(hex("dc20e2d83f25705bb49e439eca56de25"), GCMSIV.gcmSivEncrypt(ks, nonce, null, new byte[0]));
+        byte[] ct = GCMSIV.gcmSivEncrypt(ks, nonce, null, hex("0100000000000000"));
+        assertArrayEquals(hex("b5d839330ac7b786578782fff6013b815b287c22493a364c"), ct);
+        assertArrayEquals(hex("0100000000000000"), GCMSIV.gcmSivDecrypt(ks, nonce, null, ct));
+    }
+
+    @Test
+    void deterministic_roundTrip_256() {
+        Random rnd = new Random(22);
+        byte[] key = new byte[32];
+        rnd.nextBytes(key);
+        KeySchedule ks = new KeySchedule(key);
+        byte[] nonce = new byte[12];
+        for (int n : new int[] { 0, 1, 16, 47, 5000 }) {
+            byte[] pt = new byte[n];
+            byte[] aad = new byte[n % 19];
+            rnd.nextBytes(pt);
+            rnd.nextBytes(aad);
+            byte[] a = GCMSIV.gcmSivEncrypt(ks, nonce, aad, pt);
+            assertArrayEquals(a, GCMSIV.gcmSivEncrypt(ks, nonce, aad, pt), "deterministic " + n);
+            assertArrayEquals(pt, GCMSIV.gcmSivDecrypt(ks, nonce, aad, a), "round trip " + n);
+        }
+    }
+
+    @Test
+    void tampered_rejected() {
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] nonce = new byte[12];
+        byte[] ct = GCMSIV.gcmSivEncrypt(ks, nonce, new byte[] { 1 }, new byte[33]);
+        for (int i : new int[] { 0, 32, 33, 48 }) {
+            byte[] bad = ct.clone();
+            bad[i] ^= 1;
+            assertThrows(SecurityException.class, () -> GCMSIV.gcmSivDecrypt(ks, nonce, new byte[] { 1 }, bad));
+        }
+        assertThrows(SecurityException.class, () -> GCMSIV.gcmSivDecrypt(ks, nonce, null, ct));
+        assertThrows(IllegalArgumentException.class,
+                () -> GCMSIV.gcmSivEncrypt(new KeySchedule(new byte[24]), nonce, null, new byte[1]));
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
@@ -0,0 +1,147 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.KeySchedule;
+
+class GCMTest {
+
+    @Test
+    void nistTestCases() {
+        // GCM spec test cases 1 and 2: zero key, zero IV
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        assertArrayEquals(hex("58e2fccefa7e3061367f1d57a4e7455a"), GCM.gcmEncrypt(ks, new byte[12], null, new byte[0]));
+        assertArrayEquals(hex("0388dace60b6a392f328c2b971b2fe78ab6e47d42cec13bdf53a67b21257bddf"),
+                GCM.gcmEncrypt(ks, new byte[12], null, new byte[16]));
+
+        // test case 4: AAD and a partial last block
+        KeySchedule ks4 = new KeySchedule(hex("feffe9928665731c6d6a8f9467308308"));
+        byte[] pt = hex("d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a721c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39");
+        byte[] aad = hex("feedfacedeadbeeffeedfacedeadbeefabaddad2");
+        byte[] ct = GCM.gcmEncrypt(ks4, hex("cafebabefacedbaddecaf888"), aad, pt);
+        assertArrayEquals(hex("42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091"
+                + "5bc94fbc3221a5db94fae95ae7121a47"), ct);
+        assertArrayEquals(pt, GCM.gcmDecrypt(ks4, hex("cafebabefacedbaddecaf888"), aad, ct));
+    }
+
+    @Test
+    void matchesJce_variousLengthsAndIvs() throws Exception {
+        Random rnd = new Random(15);
+        for (int keyLen : new int[] { 16, 24, 32 }) {
+            byte[] key = new byte[keyLen];
+            rnd.nextBytes(key);
+            KeySchedule ks = new KeySchedule(key);
+            for (int ivLen : new int[] { 12, 1, 16, 60 }) {
+                for (int n : new int[] { 0, 5, 16, 33, 5000 }) {
+                    byte[] iv = new byte[ivLen];
+                    byte[] aad = new byte[n % 23];
+                    byte[] pt = new byte[n];
+                    rnd.nextBytes(iv);
+                    rnd.nextBytes(aad);
+                    rnd.nextBytes(pt);
+                    Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+                    c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+                    c.updateAAD(aad);
+                    assertArrayEquals(c.doFinal(pt), GCM.gcmEncrypt(ks, iv, aad, pt),
+                            "key " + keyLen + " iv " + ivLen + " len " + n);
+                }
+            }
+        }
+    }
+
+    @Test
+    void streaming_matchesOneShot_anySplit() {
+        Random rnd = new Random(16);
+        KeySchedule ks = new KeySchedule(new byte[32]);
+        byte[] iv = new byte[12];
+        byte[] aad = new byte[37];
+        byte[] pt = new byte[1000];
+        rnd.nextBytes(aad);
+        rnd.nextBytes(pt);
+        byte[] ref = GCM.gcmEncrypt(ks, iv, aad, pt);
+
+        for (int chunk : new int[] { 1, 7, 16, 100 }) {
+            GCM enc = new GCM(AES.ENCRYPT_MODE, ks, iv);
+            enc.updateAAD(aad, 0, 20);
+            enc.updateAAD(aad, 20, aad.length - 20);
+            byte[] out = new byte[ref.length];
+            int w = 0;
+            for (int p = 0; p < pt.length; p += chunk)
+                w += enc.update(pt, p, Math.min(chunk, pt.length - p), out, w);
+            w += enc.doFinal(pt, 0, 0, out, w);
+            assertEquals(ref.length, w);
+            assertArrayEquals(ref, out, "encrypt chunk " + chunk);
+
+            GCM dec = new GCM(AES.DECRYPT_MODE, ks, iv);
+            dec.updateAAD(aad, 0, aad.length);
+            byte[] buf = ref.clone(); // decrypt in place
+            w = 0;
+            for (int p = 0; p < buf.length; p += chunk)
+                w += dec.update(buf, p, Math.min(chunk, buf.length - p), buf, w);
+            w += dec.doFinal(buf, 0, 0, buf, w);
+            assertEquals(pt.length, w);
+            assertArrayEquals(pt, Arrays.copyOf(buf, w), "decrypt chunk " + chunk);
+        }
+    }
+
+    @Test
+    void tamperedInput_rejected() {
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] iv = new byte[12];
+        byte[] ct = GCM.gcmEncrypt(ks, iv, new byte[] { 1 }, new byte[40]);
+        for (int i : new int[] { 0, 39, 40, 55 }) {
+            byte[] bad = ct.clone();
+            bad[i] ^= 1;
+            assertThrows(SecurityException.class, () -> GCM.gcmDecrypt(ks, iv, new byte[] { 1 }, bad));
+        }
+        assertThrows(SecurityException.class, () -> GCM.gcmDecrypt(ks, iv, new byte[] { 2 }, ct));
+        assertThrows(SecurityException.class, () -> GCM.gcmDecrypt(ks, iv, null, new byte[15]));
+
+        GCM g = new GCM(AES.ENCRYPT_MODE, ks, iv);
+        g.update(new byte[1], 0, 1, new byte[1], 0);
+        assertThrows(IllegalStateException.class, () -> g.updateAAD(new byte[1], 0, 1));
+    }
+
+    @Test
+    void dataLimit_lastCounterBlock_thenRejected() {
+        KeySchedule ks = new KeySchedule(new byte[16]);
+        byte[] iv = hex("cafebabefacedbaddecaf888");
+        for (boolean mode : new boolean[] { AES.ENCRYPT_MODE, AES.DECRYPT_MODE }) {
+            GCM g = new GCM(mode, ks, iv);
+            g.skipData(GCM.MAX_DATA_LENGTH - 16);
+            byte[] buf = new byte[16 + (mode ? 0 : GCM.TAG_LENGTH)];
+            assertEquals(16, g.update(buf, 0, buf.length, buf, 0));
+
+            // the last allowed block runs on counter 0xFFFFFFFF, just short of wrapping to J0
+            byte[] ctr = hex("cafebabefacedbaddecaf888ffffffff");
+            AES.blockRun(AES.ENCRYPT_MODE, ctr, ks);
+            assertArrayEquals(ctr, Arrays.copyOf(buf, 16));
+
+            byte[] more = new byte[1];
+            assertThrows(IllegalArgumentException.class, () -> g.update(more, 0, 1, more, 0));
+            assertEquals(0, more[0]);
+        }
+
+        GCM g = new GCM(AES.ENCRYPT_MODE, ks, iv);
+        assertThrows(IllegalArgumentException.class, () -> g.skipData(GCM.MAX_DATA_LENGTH + 1));
+        g.skipData(GCM.MAX_DATA_LENGTH);
+        assertThrows(IllegalArgumentException.class, () -> g.update(new byte[1], 0, 1, new byte[1], 0));
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
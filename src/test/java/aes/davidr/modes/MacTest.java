@@ -0,0 +1,111 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.KeySchedule;
+
+class MacTest {
+    private static final String MSG = "6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+            + "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710";
+
+    @Test
+    void cmac_rfc4493() {
+        KeySchedule ks = new KeySchedule(hex("2b7e151628aed2a6abf7158809cf4f3c"));
+        byte[] m = hex(MSG);
+        assertArrayEquals(hex("bb1d6929e95937287fa37d129b756746"), CMAC.cmac(ks, new byte[0]));
+        assertArrayEquals(hex("070a16b46b4d4144f79bdd9dd04a287c"), CMAC.cmac(ks, java.util.Arrays.copyOf(m, 16)));
+        assertArrayEquals(hex("dfa66747de9ae63030ca32611497c827"), CMAC.cmac(ks, java.util.Arrays.copyOf(m, 40)));
+        assertArrayEquals(hex("51f0bebf7e3b9d92fc49741779363cfe"), CMAC.cmac(ks, m));
+    }
+
+    @Test
+    void pmac_emptyMessage() {
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090a0b0c0d0e0f"));
+        assertArrayEquals(hex("4399572cd6ea5341b8d35876a7098af7"), PMAC.pmac(ks, new byte[0]));
+    }
+
+    @Test
+    void pmac_matchesSerialDefinition() {
+        Random rnd = new Random(23);
+        KeySchedule ks = new KeySchedule(hex("000102030405060708090a0b0c0d0e0f"));
+        for (int n : new int[] { 1, 15, 16, 17, 32, 33, 1000, 70000 }) {
+            byte[] m = new byte[n];
+            rnd.nextBytes(m);
+            assertArrayEquals(referencePmac(ks, m), PMAC.pmac(ks, m), "length " + n);
+        }
+    }
+
+    @Test
+    void incrementalUpdates_matchOneShot() {
+        Random rnd = new Random(24);
+        KeySchedule ks = new KeySchedule(new byte[32]);
+        byte[] m = new byte[5000];
+        rnd.nextBytes(m);
+        byte[] cmac = CMAC.cmac(ks, m);
+        byte[] pmac = PMAC.pmac(ks, m);
+        CMAC c = new CMAC(ks);
+        PMAC p = new PMAC(ks);
+        for (int chunk : new int[] { 1, 5, 16, 17, 999 }) {
+            for (int off = 0; off < m.length; off += chunk) {
+                int len = Math.min(chunk, m.length - off);
+                c.update(m, off, len);
+                p.update(m, off, len);
+            }
+            // doFinal resets, so the same instances serve every split
+            assertArrayEquals(cmac, c.doFinal(), "cmac chunk " + chunk);
+            assertArrayEquals(pmac, p.doFinal(), "pmac chunk " + chunk);
+        }
+    }
+
+    /** PMAC1 straight from the definition, one block at a time. */
+    private static byte[] referencePmac(KeySchedule ks, byte[] m) {
+        byte[] l = AES.blockRun(AES.ENCRYPT_MODE, new byte[16], ks);
+        int blocks = Math.max(1, (m.length + 15) / 16);
+        byte[] offset = new byte[16];
+        byte[] sigma = new byte[16];
+        for (int i = 1; i < blocks; i++) {
+            byte[] li = l.clone();
+            for (int z = Integer.numberOfTrailingZeros(i); z > 0; z--)
+                CMAC.dbl(li);
+            byte[] b = new byte[16];
+            for (int k = 0; k < 16; k++) {
+                offset[k] ^= li[k];
+                b[k] = (byte) (m[(i - 1) * 16 + k] ^ offset[k]);
+            }
+            AES.blockRun(AES.ENCRYPT_MODE, b, ks);
+            for (int k = 0; k < 16; k++)
+                sigma[k] ^= b[k];
+        }
+        int lastLen = m.length - (blocks - 1) * 16;
+        for (int k = 0; k < lastLen; k++)
+            sigma[k] ^= m[(blocks - 1) * 16 + k];
+        if (lastLen == 16) {
+            // L(-1): L * x^-1
+            byte[] inv = new byte[16];
+            int carry = l[15] & 1;
+            for (int k = 15; k >= 0; k--)
+                inv[k] = (byte) (((l[k] & 0xFF) >>> 1) | (k > 0 ? (l[k - 1] & 1) << 7 : 0));
+            if (carry != 0) {
+                inv[0] ^= (byte) 0x80;
+                inv[15] ^= 0x43;
+            }
+            for (int k = 0; k < 16; k++)
+                sigma[k] ^= inv[k];
+        } else {
+            sigma[lastLen] ^= (byte) 0x80;
+        }
+        return AES.blockRun(AES.ENCRYPT_MODE, sigma, ks);
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}
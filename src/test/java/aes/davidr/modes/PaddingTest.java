@@ -94,4 +94,38 @@ public class PaddingTest {
         assertThrows(NullPointerException.class, () -> Padding.padPKCS7(paddedN));
         assertThrows(NullPointerException.class, () -> Padding.unpadPKCS7(paddedN));
     }
+
+    @Test
+    void testPKCS7InPlace() {
+        byte[] buf = new byte[40];
+        for (int i = 0; i < 20; i++)
+            buf[3 + i] = (byte) i;
+        assertEquals(32, Padding.padPKCS7(buf, 3, 20));
+        for (int i = 23; i < 35; i++)
+            assertEquals(12, buf[i]);
+        assertEquals(0, buf[35]);
+        assertEquals(20, Padding.unpadPKCS7(buf, 3, 32));
+
+        byte[] block = new byte[16];
+        assertEquals(16, Padding.padPKCS7(block, 0, 0));
+        assertEquals(0, Padding.unpadPKCS7(block, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> Padding.padPKCS7(new byte[16], 0, 16));
+    }
+
+    @Test
+    void testUnpadPKCS7InPlaceRejects() {
+        byte[] zero = new byte[16];
+        byte[] tooBig = new byte[16];
+        tooBig[15] = 17;
+        byte[] longerThanData = { 3, 3 };
+        byte[] mismatch = new byte[16];
+        java.util.Arrays.fill(mismatch, 8, 16, (byte) 8);
+        mismatch[8] = 7;
+
+        assertThrows(IllegalArgumentException.class, () -> Padding.unpadPKCS7(zero, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> Padding.unpadPKCS7(tooBig, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> Padding.unpadPKCS7(longerThanData, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> Padding.unpadPKCS7(mismatch, 0, 16));
+        assertThrows(IllegalArgumentException.class, () -> Padding.unpadPKCS7(mismatch, 0, 0));
+    }
 }
@@ -0,0 +1,70 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.BlockEngines;
+import aes.davidr.engine.KeySchedule;
+
+class ParallelTest {
+
+    @Test
+    void split_coversRangeOnceAligned() {
+        int len = 16 * 1001;
+        AtomicIntegerArray hits = new AtomicIntegerArray(len / 16);
+        Parallel.split(len, 16, 16 * 37, (from, to) -> {
+            assertEquals(0, from % 16);
+            assertTrue(to - from <= 16 * 37 && to > from);
+            for (long p = from; p < to; p += 16)
+                hits.incrementAndGet((int) (p / 16));
+        });
+        for (int i = 0; i < hits.length(); i++)
+            assertEquals(1, hits.get(i), "block " + i);
+    }
+
+    @Test
+    void split_rethrowsTaskFailure() {
+        assertThrows(IllegalStateException.class, () -> Parallel.split(16 * 64, 16, 16, (from, to) -> {
+            if (from == 16 * 40)
+                throw new IllegalStateException("piece failed");
+        }));
+    }
+
+    @Test
+    void split_failure_waitsForEveryPiece() {
+        AtomicInteger done = new AtomicInteger();
+        assertThrows(IllegalStateException.class, () -> Parallel.split(16 * 32, 16, 16, (from, to) -> {
+            if (from == 0)
+                throw new IllegalStateException("piece failed");
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.incrementAndGet();
+        }));
+        assertEquals(31, done.get()); // nothing still running after the throw
+    }
+
+    @Test
+    void splitEcb_matchesSerial() {
+        Random rnd = new Random(12);
+        KeySchedule ks = new KeySchedule(Arrays.copyOf(new byte[] { 7 }, 32));
+        byte[] data = new byte[16 * 513];
+        rnd.nextBytes(data);
+        byte[] ref = data.clone();
+        BlockEngines.REFERENCE.processBlocks(AES.ENCRYPT_MODE, ref, ks, 0, ref.length);
+
+        byte[] out = new byte[data.length];
+        Parallel.split(data.length, 16, 16 * 10, (from, to) -> BlockEngines.selected()
+                .processBlocks(AES.ENCRYPT_MODE, data, (int) from, (int) (to - from), out, (int) from, ks));
+        assertArrayEquals(ref, out);
+    }
+}
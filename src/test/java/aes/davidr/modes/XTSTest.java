@@ -0,0 +1,99 @@
+package aes.davidr.modes;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import aes.davidr.engine.AES;
+import aes.davidr.engine.KeySchedule;
+
+class XTSTest {
+
+    @Test
+    void ieee1619_vectors() {
+        // vector 2 (vector 1 uses the same key twice, which XTS now rejects)
+        KeySchedule k11 = new KeySchedule(hex("11111111111111111111111111111111"));
+        KeySchedule k22 = new KeySchedule(hex("22222222222222222222222222222222"));
+        byte[] out = new byte[32];
+        XTS.xtsProcess(AES.ENCRYPT_MODE, k11, k22, 0x3333333333L,
+                hex("4444444444444444444444444444444444444444444444444444444444444444"), 0, 32, out, 0);
+        assertArrayEquals(hex("c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0"), out);
+
+        // vector 15: 17 bytes, ciphertext stealing
+        KeySchedule k1 = new KeySchedule(hex("fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0"));
+        KeySchedule k2 = new KeySchedule(hex("bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0"));
+        byte[] pt = hex("000102030405060708090a0b0c0d0e0f10");
+        byte[] ct = new byte[17];
+        XTS.xtsProcess(AES.ENCRYPT_MODE, k1, k2, 0x123456789aL, pt, 0, 17, ct, 0);
+        assertArrayEquals(hex("6c1625db4671522d3d7599601de7ca09ed"), ct);
+        XTS.xtsProcess(AES.DECRYPT_MODE, k1, k2, 0x123456789aL, ct, 0, 17, ct, 0);
+        assertArrayEquals(pt, ct);
+    }
+
+    @Test
+    void roundTrip_allTailLengths_inPlace() {
+        Random rnd = new Random(20);
+        KeySchedule k1 = new KeySchedule(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+        KeySchedule k2 = new KeySchedule(new byte[32]);
+        for (int n = 16; n <= 80; n++) {
+            byte[] pt = new byte[n];
+            rnd.nextBytes(pt);
+            byte[] buf = pt.clone();
+            XTS.xtsProcess(AES.ENCRYPT_MODE, k1, k2, n, buf, 0, n, buf, 0);
+            assertFalse(Arrays.equals(pt, buf));
+            XTS.xtsProcess(AES.DECRYPT_MODE, k1, k2, n, buf, 0, n, buf, 0);
+            assertArrayEquals(pt, buf, "length " + n);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> XTS.xtsProcess(AES.ENCRYPT_MODE, k1, k2, 0, new byte[15], 0, 15, new byte[15], 0));
+    }
+
+    @Test
+    void equalKeys_rejected() {
+        KeySchedule k = new KeySchedule(new byte[16]);
+        KeySchedule same = new KeySchedule(new byte[16]);
+        byte[] buf = new byte[32];
+        assertThrows(IllegalArgumentException.class,
+                () -> XTS.xtsProcess(AES.ENCRYPT_MODE, k, k, 0, buf, 0, 32, buf, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> XTS.xtsProcess(AES.DECRYPT_MODE, k, same, 0, buf, 0, 32, buf, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> XTS.xtsProcessSectors(AES.ENCRYPT_MODE, k, same, new long[] { 0 }, 32, buf, 0, buf, 0));
+        // same leading bytes, different key size
+        XTS.xtsProcess(AES.ENCRYPT_MODE, k, new KeySchedule(new byte[32]), 0, buf, 0, 32, buf, 0);
+    }
+
+    @Test
+    void sectorBatch_matchesOneAtATime() {
+        Random rnd = new Random(21);
+        KeySchedule k1 = new KeySchedule(new byte[24]);
+        KeySchedule k2 = new KeySchedule(new byte[] { 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 9 });
+        int size = 4096 + 16 * 3; // larger than one engine batch
+        long[] sectors = { 7, 3, 1L << 40, 0, 8 };
+        byte[] data = new byte[size * sectors.length];
+        rnd.nextBytes(data);
+
+        byte[] batch = new byte[data.length];
+        XTS.xtsProcessSectors(AES.ENCRYPT_MODE, k1, k2, sectors, size, data, 0, batch, 0);
+        for (int k = 0; k < sectors.length; k++) {
+            byte[] one = new byte[size];
+            XTS.xtsProcess(AES.ENCRYPT_MODE, k1, k2, sectors[k], data, k * size, size, one, 0);
+            assertArrayEquals(one, Arrays.copyOfRange(batch, k * size, (k + 1) * size), "sector " + sectors[k]);
+        }
+
+        byte[] consecutive = data.clone();
+        XTS.xtsProcessSectors(AES.ENCRYPT_MODE, k1, k2, 100, size, consecutive, 0, consecutive.length, consecutive, 0);
+        XTS.xtsProcessSectors(AES.DECRYPT_MODE, k1, k2, 100, size, consecutive, 0, consecutive.length, consecutive, 0);
+        assertArrayEquals(data, consecutive);
+    }
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++)
+            out[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return out;
+    }
+}